@@ -0,0 +1,193 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Headless bulk chart export for reports: simulates every scenario of a SimulationRunner
+ * input file and writes one chart per scenario as PNG or SVG, rendered in parallel.
+ *
+ * Charts are drawn by investment.ChartRenderer, the same code the GUI graph uses, so run it
+ * with -Djava.awt.headless=true on servers without a display. Each worker thread keeps its
+ * renderer and its image buffer for the whole run, and at most a few scenarios per thread
+ * are in flight.
+ *
+ * Usage: java -Djava.awt.headless=true ChartExporter --output-dir dir [--input file]
+ *             [--format png|svg] [--threads n] [--seed n] [--width n] [--height n] [--lines]
+ * Files are named <line>_<symbol>.<format>; --lines draws the three lines instead of the fan.
+ */
+class ChartExporter {
+    private final File outputDir;
+    private final boolean svg;
+    private final int threads;
+    private final long seed;
+    private final int width, height;
+    private final boolean fanChart;
+
+    // Renderer and image buffer of the current worker thread
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+    ChartExporter(File outputDir, boolean svg, int threads, long seed, int width, int height, boolean fanChart) {
+        this.outputDir = outputDir;
+        this.svg = svg;
+        this.threads = threads;
+        this.seed = seed;
+        this.width = width;
+        this.height = height;
+        this.fanChart = fanChart;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String input = null;
+        String outputDir = null;
+        String format = "png";
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = investment.SimulationEngine.DEFAULT_SEED;
+        int width = investment.ChartRenderer.EXPORT_WIDTH;
+        int height = investment.ChartRenderer.EXPORT_HEIGHT;
+        boolean fanChart = true;
+
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--input": input = value; i++; break;
+                case "--output-dir": outputDir = value; i++; break;
+                case "--format": format = value; i++; break;
+                case "--threads": threads = Integer.parseInt(value); i++; break;
+                case "--seed": seed = Long.parseLong(value); i++; break;
+                case "--width": width = Integer.parseInt(value); i++; break;
+                case "--height": height = Integer.parseInt(value); i++; break;
+                case "--lines": fanChart = false; break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if (outputDir == null) {
+            System.err.println("Missing --output-dir");
+            System.exit(2);
+        }
+        if (!"png".equals(format) && !"svg".equals(format)) {
+            System.err.println("Unknown format: " + format);
+            System.exit(2);
+        }
+
+        // ImageIO would otherwise buffer every PNG through a temporary file
+        ImageIO.setUseCache(false);
+        File dir = new File(outputDir);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        ChartExporter exporter = new ChartExporter(dir, "svg".equals(format), Math.max(1, threads), seed,
+                width, height, fanChart);
+        try (InputStream in = input == null ? System.in : new FileInputStream(input)) {
+            long start = System.nanoTime();
+            long count = exporter.run(in);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf(Locale.ROOT, "%d charts in %.2f s (%.1f images/s)%n",
+                    count, seconds, count / Math.max(seconds, 1e-9));
+        }
+    }
+
+    // Simulates and exports every scenario in 'in'; returns the number of charts written
+    public long run(InputStream in) throws IOException, InterruptedException {
+        ForkJoinPool pathPool = new ForkJoinPool(threads);
+        ExecutorService chartPool = Executors.newFixedThreadPool(threads);
+        investment.SimulationCache cache = new investment.SimulationCache(investment.SimulationCache.DEFAULT_MAX_BYTES);
+        investment.SimulationEngine engine = new investment.SimulationEngine(pathPool, cache);
+        ArrayDeque<Future<?>> pending = new ArrayDeque<>();
+        int window = threads * 4;
+        long count = 0;
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("symbol")) {
+                    continue;
+                }
+                SimulationRunner.Scenario scenario = SimulationRunner.Scenario.parse(line, lineNumber);
+                int number = lineNumber;
+                pending.add(chartPool.submit(() -> {
+                    export(scenario.run(engine, seed, false), number);
+                    return null;
+                }));
+                if (pending.size() >= window) {
+                    take(pending);
+                    count++;
+                }
+            }
+            while (!pending.isEmpty()) {
+                take(pending);
+                count++;
+            }
+        } finally {
+            chartPool.shutdownNow();
+            pathPool.shutdownNow();
+        }
+        return count;
+    }
+
+    private void export(investment.SimulationResult result, int lineNumber) throws IOException {
+        Worker worker = workers.get();
+        worker.renderer.setResult(result);
+        worker.renderer.setFanChart(fanChart);
+        String name = lineNumber + "_" + result.getInvestment().getSymbol().replaceAll("[^A-Za-z0-9._-]", "_");
+
+        if (svg) {
+            worker.renderer.setSize(width, height);
+            File file = new File(outputDir, name + ".svg");
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+                worker.renderer.writeSvg(writer);
+            }
+        } else {
+            worker.renderer.render(worker.image(width, height));
+            File file = new File(outputDir, name + ".png");
+            if (!ImageIO.write(worker.image, "png", file)) {
+                throw new IOException("No PNG writer available");
+            }
+        }
+    }
+
+    private static void take(ArrayDeque<Future<?>> pending) throws IOException, InterruptedException {
+        try {
+            pending.poll().get();
+        } catch (ExecutionException e) {
+            throw new IOException("Chart export failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // One per pool thread: renderers aren't thread-safe, and reusing the image spares a
+    // width x height allocation per chart
+    private static class Worker {
+        final investment.ChartRenderer renderer = new investment.ChartRenderer();
+        BufferedImage image;
+
+        BufferedImage image(int width, int height) {
+            if (image == null || image.getWidth() != width || image.getHeight() != height) {
+                image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            }
+            return image;
+        }
+    }
+}
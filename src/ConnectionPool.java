@@ -0,0 +1,406 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small fixed-size pool of SQLite connections shared by the DAOs.
+ *
+ * Connections are opened lazily, up to the pool size, and set up once with WAL journaling,
+ * synchronous=NORMAL, memory-mapped I/O and a busy timeout. getConnection() hands out a
+ * wrapper whose close() returns the connection to the pool, so DAO code keeps its
+ * try-with-resources blocks. Prepared statements are cached per connection: closing one
+ * only resets it, and the next prepareStatement with the same SQL reuses it.
+ *
+ * The size, mmap size and acquire timeout come from the system properties
+ * db.pool.size, db.pool.mmapSize and db.pool.timeoutMillis.
+ */
+public class ConnectionPool implements AutoCloseable {
+    public static final int DEFAULT_SIZE = 4;
+    public static final long DEFAULT_MMAP_SIZE = 256L << 20;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30_000;
+    public static final int BUSY_TIMEOUT_MILLIS = 5_000;
+    // Prepared statements kept per connection; the least recently used one is closed beyond this
+    public static final int STATEMENT_CACHE_SIZE = 32;
+
+    private final String url;
+    private final int size;
+    private final long mmapSize;
+    private final long timeoutMillis;
+
+    // A permit per connection that may be handed out; idle holds opened, unused connections
+    private final Semaphore permits;
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+    private int opened;
+    private boolean closed;
+
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    public ConnectionPool(String url, int size, long mmapSize, long timeoutMillis) {
+        if (size < 1) throw new IllegalArgumentException("Pool size must be at least 1");
+        this.url = url;
+        this.size = size;
+        this.mmapSize = mmapSize;
+        this.timeoutMillis = timeoutMillis;
+        this.permits = new Semaphore(size, true);
+    }
+
+    // Pool for 'url' configured from the db.pool.* system properties
+    public static ConnectionPool fromSystemProperties(String url) {
+        return new ConnectionPool(url,
+                Integer.getInteger("db.pool.size", DEFAULT_SIZE),
+                Long.getLong("db.pool.mmapSize", DEFAULT_MMAP_SIZE),
+                Long.getLong("db.pool.timeoutMillis", DEFAULT_TIMEOUT_MILLIS));
+    }
+
+    // Borrows a connection, waiting up to the timeout when all are in use. Closing the
+    // returned connection gives it back.
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Timed out after " + timeoutMillis + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        acquisitions.incrementAndGet();
+        waitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        PooledConnection pooled;
+        try {
+            pooled = takeIdle();
+            if (pooled == null) {
+                try {
+                    pooled = new PooledConnection(open());
+                } catch (SQLException | RuntimeException e) {
+                    synchronized (this) {
+                        opened--;
+                    }
+                    throw e;
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        return pooled.lease();
+    }
+
+    // An idle connection that is still open, or null after reserving a slot for a new one
+    private synchronized PooledConnection takeIdle() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+        while (!idle.isEmpty()) {
+            PooledConnection pooled = idle.pop();
+            if (!pooled.physical.isClosed()) {
+                return pooled;
+            }
+            pooled.closeQuietly();
+            opened--;
+        }
+        opened++;
+        return null;
+    }
+
+    private Connection open() throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            // WAL lets readers run while a write commits; NORMAL syncs only at checkpoints,
+            // which is still safe against corruption in WAL mode
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA mmap_size=" + mmapSize);
+            stmt.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT_MILLIS);
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        return conn;
+    }
+
+    private void release(PooledConnection pooled) {
+        boolean reusable = pooled.reset();
+        synchronized (this) {
+            if (reusable && !closed) {
+                idle.push(pooled);
+            } else {
+                pooled.closeQuietly();
+                opened--;
+            }
+        }
+        permits.release();
+    }
+
+    // Closes the idle connections; connections still borrowed are closed when returned
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (PooledConnection pooled : idle) {
+            pooled.closeQuietly();
+            opened--;
+        }
+        idle.clear();
+    }
+
+    public synchronized Metrics getMetrics() {
+        return new Metrics(size, opened, size - permits.availablePermits(), acquisitions.get(),
+                waitNanos.get(), maxWaitNanos.get(), timeouts.get(), statementHits.get(), statementMisses.get());
+    }
+
+    // Snapshot of the pool's usage counters since it was created
+    public static class Metrics {
+        private final int size, opened, inUse;
+        private final long acquisitions, totalWaitNanos, maxWaitNanos, timeouts;
+        private final long statementHits, statementMisses;
+
+        Metrics(int size, int opened, int inUse, long acquisitions, long totalWaitNanos, long maxWaitNanos,
+                long timeouts, long statementHits, long statementMisses) {
+            this.size = size;
+            this.opened = opened;
+            this.inUse = inUse;
+            this.acquisitions = acquisitions;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.timeouts = timeouts;
+            this.statementHits = statementHits;
+            this.statementMisses = statementMisses;
+        }
+
+        public int getSize() { return size; }
+        public int getOpened() { return opened; }
+        public int getInUse() { return inUse; }
+        public long getAcquisitions() { return acquisitions; }
+        public long getTimeouts() { return timeouts; }
+        public long getStatementHits() { return statementHits; }
+        public long getStatementMisses() { return statementMisses; }
+
+        public double getAverageWaitMillis() {
+            return acquisitions == 0 ? 0 : totalWaitNanos / 1e6 / acquisitions;
+        }
+
+        public double getMaxWaitMillis() { return maxWaitNanos / 1e6; }
+
+        @Override
+        public String toString() {
+            return String.format("pool %d/%d open, %d in use, %d acquisitions, wait avg %.3f ms max %.3f ms, "
+                            + "%d timeouts, statement cache %d hits %d misses",
+                    opened, size, inUse, acquisitions, getAverageWaitMillis(), getMaxWaitMillis(),
+                    timeouts, statementHits, statementMisses);
+        }
+    }
+
+    // A physical connection with its statement cache. Each lease is a fresh proxy, so a
+    // connection closed by one borrower can't be used after someone else borrowed it.
+    private class PooledConnection {
+        final Connection physical;
+        private final LinkedHashMap<String, CachedStatement> statements =
+                new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                        if (size() <= STATEMENT_CACHE_SIZE) return false;
+                        eldest.getValue().closeQuietly();
+                        return true;
+                    }
+                };
+        // Statements and result sets the current borrower hasn't closed
+        private final List<Statement> openStatements = new ArrayList<>();
+        private final Set<CachedStatement> leasedStatements = new HashSet<>();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        Connection lease() {
+            boolean[] released = {false};
+            InvocationHandler handler = (proxy, method, args) -> {
+                String name = method.getName();
+                if ("close".equals(name)) {
+                    if (!released[0]) {
+                        released[0] = true;
+                        release(this);
+                    }
+                    return null;
+                }
+                if ("isClosed".equals(name)) {
+                    return released[0] || physical.isClosed();
+                }
+                if (released[0]) {
+                    throw new SQLException("Connection has been returned to the pool");
+                }
+                if ("prepareStatement".equals(name) && isCacheable(args)) {
+                    return prepare((String) args[0], args.length == 2 ? (Integer) args[1] : Statement.NO_GENERATED_KEYS);
+                }
+                Object result = invoke(physical, method, args);
+                if (result instanceof Statement) {
+                    openStatements.add((Statement) result);
+                }
+                return result;
+            };
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, handler);
+        }
+
+        // prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys)
+        private boolean isCacheable(Object[] args) {
+            return args.length == 1 || (args.length == 2 && args[1] instanceof Integer);
+        }
+
+        private PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys + ":" + sql;
+            CachedStatement cached = statements.get(key);
+            if (cached == null || cached.inUse || cached.statement.isClosed()) {
+                statementMisses.incrementAndGet();
+                PreparedStatement statement = physical.prepareStatement(sql, autoGeneratedKeys);
+                if (cached != null && cached.inUse) {
+                    // The same SQL is open twice on this lease; the second one isn't cached
+                    openStatements.add(statement);
+                    return statement;
+                }
+                cached = new CachedStatement(statement);
+                statements.put(key, cached);
+            } else {
+                statementHits.incrementAndGet();
+            }
+            leasedStatements.add(cached);
+            return cached.lease();
+        }
+
+        // Closes whatever the borrower left open and restores auto-commit. Returns false if
+        // the connection is broken and should be discarded.
+        boolean reset() {
+            for (Statement statement : openStatements) {
+                try {
+                    statement.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            openStatements.clear();
+            for (CachedStatement cached : leasedStatements) {
+                cached.reset();
+            }
+            leasedStatements.clear();
+            try {
+                if (physical.isClosed()) return false;
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void closeQuietly() {
+            for (Iterator<CachedStatement> it = statements.values().iterator(); it.hasNext(); ) {
+                it.next().closeQuietly();
+                it.remove();
+            }
+            try {
+                physical.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    // A cached prepared statement. Closing the borrower's proxy closes its result sets and
+    // clears the parameters, but keeps the compiled statement for the next borrower.
+    private static class CachedStatement {
+        final PreparedStatement statement;
+        private final List<ResultSet> resultSets = new ArrayList<>();
+        boolean inUse;
+        // Incremented per lease, so a stale proxy can't touch the next borrower's statement
+        private int lease;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        PreparedStatement lease() {
+            inUse = true;
+            int current = ++lease;
+            InvocationHandler handler = (proxy, method, args) -> {
+                boolean closed = !inUse || lease != current;
+                String name = method.getName();
+                if ("close".equals(name)) {
+                    if (!closed) {
+                        reset();
+                    }
+                    return null;
+                }
+                if ("isClosed".equals(name)) {
+                    return closed;
+                }
+                if (closed) {
+                    throw new SQLException("Statement is closed");
+                }
+                Object result = invoke(statement, method, args);
+                if (result instanceof ResultSet) {
+                    resultSets.add((ResultSet) result);
+                }
+                return result;
+            };
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, handler);
+        }
+
+        // Open result sets would keep SQLite's read transaction, and with it the WAL
+        // snapshot, alive, so they are closed as soon as the borrower is done
+        void reset() {
+            if (!inUse) return;
+            inUse = false;
+            for (ResultSet resultSet : resultSets) {
+                try {
+                    resultSet.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            resultSets.clear();
+            try {
+                statement.clearParameters();
+            } catch (SQLException ignored) {
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
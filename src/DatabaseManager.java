@@ -1,24 +1,240 @@
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException; /**
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement; /**
  * فئة مفردة لإدارة اتصالات قاعدة البيانات
  */
 public class DatabaseManager {
     private static DatabaseManager instance;
     private static final String DB_URL = "jdbc:sqlite:investment_simulator.db";
+    // مجمع اتصالات مشترك بين جميع كائنات DAO بدلاً من فتح ملف قاعدة البيانات في كل عملية
+    private final ConnectionPool pool = ConnectionPool.fromSystemProperties(DB_URL);
 
-    private DatabaseManager() {
+    /**
+     * ترحيلات المخطط مرتبة حسب الإصدار. يُحفظ آخر إصدار مطبّق في PRAGMA user_version،
+     * ويُطبَّق كل ترحيل مع تحديث الإصدار في معاملة واحدة، لذا إما أن يُطبَّق كاملاً أو لا يُطبَّق.
+     * لا تُعدَّل الترحيلات المنشورة؛ أي تغيير جديد يُضاف كترحيل بإصدار أعلى.
+     */
+    private static final Migration[] MIGRATIONS = {
+            new Migration(1, "Create users and notifications tables",
+                    "CREATE TABLE IF NOT EXISTS users (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "name TEXT NOT NULL," +
+                            "email TEXT UNIQUE NOT NULL," +
+                            "notification_preference TEXT DEFAULT 'ALL'" +
+                            ")",
+                    "CREATE TABLE IF NOT EXISTS notifications (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "user_id INTEGER NOT NULL," +
+                            "title TEXT NOT NULL," +
+                            "message TEXT NOT NULL," +
+                            "type TEXT NOT NULL," +
+                            "priority TEXT NOT NULL," +
+                            "timestamp TEXT NOT NULL," +
+                            "read INTEGER DEFAULT 0," +
+                            "FOREIGN KEY (user_id) REFERENCES users(id)" +
+                            ")"),
+
+            // الطوابع الزمنية النصية (LocalDateTime بتوقيت الجهاز) تتحول إلى ميلي ثانية منذ epoch
+            // في العمود ts؛ المعدّل 'utc' يعامل النص كوقت محلي. SQLite لا يغيّر نوع عمود،
+            // لذا يُعاد بناء الجدول مع الحفاظ على المعرفات
+            new Migration(2, "Store notification timestamps as epoch milliseconds",
+                    "CREATE TABLE notifications_new (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "user_id INTEGER NOT NULL," +
+                            "title TEXT NOT NULL," +
+                            "message TEXT NOT NULL," +
+                            "type TEXT NOT NULL," +
+                            "priority TEXT NOT NULL," +
+                            "ts INTEGER NOT NULL," +
+                            "read INTEGER DEFAULT 0," +
+                            "FOREIGN KEY (user_id) REFERENCES users(id)" +
+                            ")",
+                    "INSERT INTO notifications_new (id, user_id, title, message, type, priority, ts, read) " +
+                            "SELECT id, user_id, title, message, type, priority, " +
+                            "CAST(ROUND((julianday(timestamp, 'utc') - 2440587.5) * 86400000) AS INTEGER), read " +
+                            "FROM notifications",
+                    "DROP TABLE notifications",
+                    "ALTER TABLE notifications_new RENAME TO notifications"),
+
+            // صندوق الوارد لكل مستخدم يصبح مسحاً لنطاق في الفهرس بدل مسح الجدول وفرزه
+            new Migration(3, "Index notifications by user and time",
+                    "CREATE INDEX IF NOT EXISTS idx_notifications_user_ts ON notifications (user_id, ts DESC)"),
+
+            // الترقيم بالمفتاح (ts, id) يحتاج id في الفهرس بنفس الاتجاه، وإلا فرزت SQLite
+            // الإشعارات ذات الطابع الزمني نفسه في كل صفحة. الفهرس الجديد يغني عن السابق
+            new Migration(4, "Index notifications by user, time and id for keyset paging",
+                    "CREATE INDEX IF NOT EXISTS idx_notifications_user_ts_id ON notifications (user_id, ts DESC, id DESC)",
+                    "DROP INDEX IF EXISTS idx_notifications_user_ts"),
+
+            // عدد غير المقروء لكل مستخدم وأولوية، تحدّثه المشغلات داخل معاملة الكتابة نفسها،
+            // فيبقى مطابقاً للجدول أياً كان مصدر التعديل. يُملأ من الإشعارات الموجودة
+            new Migration(5, "Keep unread notification counts per user and priority",
+                    "CREATE TABLE IF NOT EXISTS notification_counts (" +
+                            "user_id INTEGER NOT NULL," +
+                            "priority TEXT NOT NULL," +
+                            "unread INTEGER NOT NULL," +
+                            "PRIMARY KEY (user_id, priority)" +
+                            ") WITHOUT ROWID",
+                    "INSERT INTO notification_counts (user_id, priority, unread) " +
+                            "SELECT user_id, priority, COUNT(*) FROM notifications " +
+                            "WHERE read IS NOT 1 GROUP BY user_id, priority",
+                    "CREATE TRIGGER notification_counts_insert AFTER INSERT ON notifications " +
+                            "WHEN NEW.read IS NOT 1 BEGIN " +
+                            "INSERT INTO notification_counts (user_id, priority, unread) " +
+                            "VALUES (NEW.user_id, NEW.priority, 1) " +
+                            "ON CONFLICT (user_id, priority) DO UPDATE SET unread = unread + 1; END",
+                    "CREATE TRIGGER notification_counts_read AFTER UPDATE OF read ON notifications " +
+                            "WHEN (OLD.read IS 1) IS NOT (NEW.read IS 1) BEGIN " +
+                            "INSERT INTO notification_counts (user_id, priority, unread) " +
+                            "VALUES (NEW.user_id, NEW.priority, CASE WHEN NEW.read IS 1 THEN -1 ELSE 1 END) " +
+                            "ON CONFLICT (user_id, priority) DO UPDATE SET unread = unread + excluded.unread; END",
+                    "CREATE TRIGGER notification_counts_delete AFTER DELETE ON notifications " +
+                            "WHEN OLD.read IS NOT 1 BEGIN " +
+                            "UPDATE notification_counts SET unread = unread - 1 " +
+                            "WHERE user_id = OLD.user_id AND priority = OLD.priority; END"),
+
+            // الأرشفة تمر على الإشعارات الأقدم أولاً لكل المستخدمين، وفهرس المستخدم لا يخدم ذلك
+            new Migration(6, "Index notifications by time for archiving",
+                    "CREATE INDEX IF NOT EXISTS idx_notifications_ts ON notifications (ts)")
+    };
+
+    // قاعدة بيانات منفصلة للإشعارات المؤرشفة، بنفس أعمدة notifications مع وقت الأرشفة.
+    // المعرفات نفسها تُحفظ، فالإشعار المنسوخ مرتين يُستبدل ولا يتكرر
+    private static final String ARCHIVE_DB_URL = "jdbc:sqlite:investment_simulator_archive.db";
+    private static final String[] ARCHIVE_SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS notifications (" +
+                    "id INTEGER PRIMARY KEY," +
+                    "user_id INTEGER NOT NULL," +
+                    "title TEXT NOT NULL," +
+                    "message TEXT NOT NULL," +
+                    "type TEXT NOT NULL," +
+                    "priority TEXT NOT NULL," +
+                    "ts INTEGER NOT NULL," +
+                    "read INTEGER DEFAULT 0," +
+                    "archived_at INTEGER NOT NULL" +
+                    ")",
+            "CREATE INDEX IF NOT EXISTS idx_notifications_user_ts_id ON notifications (user_id, ts DESC, id DESC)"
+    };
+    // يُفتح عند أول استخدام فقط، فلا يُنشأ ملف الأرشيف ما لم يُؤرشف شيء أو يُطلب
+    private volatile ConnectionPool archivePool;
+
+    private DatabaseManager() throws SQLException {
         // مُنشئ خاص لفرض نمط المفرد
+        try {
+            migrate();
+        } catch (SQLException e) {
+            pool.close();
+            throw e;
+        }
     }
 
+    // يفشل فوراً إذا تعذّر ترحيل المخطط، بدل أن تعمل كائنات DAO على مخطط نصف مُرحَّل
     public static synchronized DatabaseManager getInstance() {
         if (instance == null) {
-            instance = new DatabaseManager();
+            try {
+                instance = new DatabaseManager();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Cannot migrate the database schema: " + e.getMessage(), e);
+            }
         }
         return instance;
     }
 
+    // يعيد اتصالاً من المجمع؛ إغلاقه يعيده إلى المجمع
     public Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DB_URL);
+        return pool.getConnection();
+    }
+
+    // اتصال بقاعدة الأرشيف؛ إغلاقه يعيده إلى مجمعها
+    public Connection getArchiveConnection() throws SQLException {
+        ConnectionPool archive = archivePool;
+        if (archive == null) {
+            archive = openArchive();
+        }
+        return archive.getConnection();
+    }
+
+    private synchronized ConnectionPool openArchive() throws SQLException {
+        if (archivePool == null) {
+            ConnectionPool archive = ConnectionPool.fromSystemProperties(ARCHIVE_DB_URL);
+            try (Connection conn = archive.getConnection();
+                 Statement stmt = conn.createStatement()) {
+                for (String sql : ARCHIVE_SCHEMA) {
+                    stmt.execute(sql);
+                }
+            } catch (SQLException e) {
+                archive.close();
+                throw e;
+            }
+            archivePool = archive;
+        }
+        return archivePool;
+    }
+
+    // إحصائيات المجمع: زمن الانتظار وعدد الاتصالات المستخدمة وإصابات ذاكرة العبارات
+    public ConnectionPool.Metrics getPoolMetrics() {
+        return pool.getMetrics();
+    }
+
+    // إصدار المخطط الحالي لقاعدة البيانات
+    public int getSchemaVersion() throws SQLException {
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            return readSchemaVersion(stmt);
+        }
+    }
+
+    // تطبيق الترحيلات التي لم تُطبَّق بعد، بالترتيب. يتوقف عند أول ترحيل فاشل ويرمي الخطأ
+    private void migrate() throws SQLException {
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version <= readSchemaVersion(stmt)) continue;
+
+                boolean applied = false;
+                conn.setAutoCommit(false);
+                try {
+                    // قد تكون عملية أخرى طبّقت الترحيل في هذه الأثناء
+                    if (migration.version > readSchemaVersion(stmt)) {
+                        for (String sql : migration.statements) {
+                            stmt.execute(sql);
+                        }
+                        stmt.execute("PRAGMA user_version = " + migration.version);
+                        applied = true;
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Migration " + migration.version + " (" + migration.description +
+                            ") failed: " + e.getMessage(), e);
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                if (applied) {
+                    System.err.println("Applied database migration " + migration.version + ": " + migration.description);
+                }
+            }
+        }
+    }
+
+    private static int readSchemaVersion(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // ترحيل واحد: رقم الإصدار الذي يرفع إليه المخطط ووصفه وعبارات SQL التي ينفذها
+    private static class Migration {
+        final int version;
+        final String description;
+        final String[] statements;
+
+        Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
     }
 }
@@ -1,15 +1,42 @@
+import javax.imageio.ImageIO;
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.text.DecimalFormat;
 
 import java.time.LocalDate;
+import java.time.Period;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 class investment extends JFrame {
     public static void main(String[] args) {
@@ -83,44 +110,53 @@ class investment extends JFrame {
     }
 
     // Simulation Result model
+    // Series are stored column-wise in primitive arrays indexed by step, and the date of
+    // step i is derived as startDate + i * step instead of being stored. Each series costs
+    // 8 bytes per step: 24 bytes per step for a three-scenario result, 40 bytes per step for
+    // a Monte Carlo result (five percentile bands; the scenarios share the P95/P50/P5 arrays).
     static class SimulationResult {
         private double initialInvestment;
         private int periodInYears;
         private Investment investment;
         private LocalDate startDate;
         private LocalDate endDate;
+        private Period step;
         private double finalValueOptimistic;
         private double finalValueModerate;
         private double finalValuePessimistic;
-        private List<DataPoint> dataPoints;
-
-        public SimulationResult(double initialInvestment, int periodInYears, Investment investment) {
+        private double[] optimisticValues;
+        private double[] moderateValues;
+        private double[] pessimisticValues;
+
+        // Monte Carlo output (pathCount is 0 for the three-scenario simulation)
+        private int pathCount;
+        private double[] percentileLevels;
+        private double[][] percentileBands;
+
+        // Estimated mean final value and its standard error (Monte Carlo only)
+        private VarianceReduction varianceReduction = VarianceReduction.NONE;
+        private double meanFinalValue;
+        private double standardError;
+
+        // Why an adaptive run stopped adding paths (null otherwise), and the relative half-width
+        // of the P5 and P95 confidence intervals its paths reached (NaN if not measured)
+        private StopReason stopReason;
+        private double achievedPrecision = Double.NaN;
+
+        // Streaming risk figures (Monte Carlo only)
+        private RiskMetrics riskMetrics;
+
+        public SimulationResult(double initialInvestment, int periodInYears, Investment investment,
+                                Period step, int size) {
             this.initialInvestment = initialInvestment;
             this.periodInYears = periodInYears;
             this.investment = investment;
             this.startDate = LocalDate.now();
             this.endDate = startDate.plusYears(periodInYears);
-            this.dataPoints = new ArrayList<>();
-        }
-
-        // Data point for chart
-        public static class DataPoint {
-            private LocalDate date;
-            private double optimisticValue;
-            private double moderateValue;
-            private double pessimisticValue;
-
-            public DataPoint(LocalDate date, double optimisticValue, double moderateValue, double pessimisticValue) {
-                this.date = date;
-                this.optimisticValue = optimisticValue;
-                this.moderateValue = moderateValue;
-                this.pessimisticValue = pessimisticValue;
-            }
-
-            public LocalDate getDate() { return date; }
-            public double getOptimisticValue() { return optimisticValue; }
-            public double getModerateValue() { return moderateValue; }
-            public double getPessimisticValue() { return pessimisticValue; }
+            this.step = step;
+            this.optimisticValues = new double[size];
+            this.moderateValues = new double[size];
+            this.pessimisticValues = new double[size];
         }
 
         public double getInitialInvestment() { return initialInvestment; }
@@ -128,6 +164,12 @@ class investment extends JFrame {
         public Investment getInvestment() { return investment; }
         public LocalDate getStartDate() { return startDate; }
         public LocalDate getEndDate() { return endDate; }
+        public Period getStep() { return step; }
+
+        public int size() { return moderateValues.length; }
+        public LocalDate getDate(int index) {
+            return startDate.plus(step.multipliedBy(index));
+        }
 
         public double getFinalValueOptimistic() { return finalValueOptimistic; }
         public void setFinalValueOptimistic(double finalValueOptimistic) {
@@ -144,9 +186,130 @@ class investment extends JFrame {
             this.finalValuePessimistic = finalValuePessimistic;
         }
 
-        public List<DataPoint> getDataPoints() { return dataPoints; }
-        public void addDataPoint(DataPoint point) {
-            this.dataPoints.add(point);
+        // Scenario series are returned without copying; callers must not modify them
+        public double[] getOptimisticValues() { return optimisticValues; }
+        public double[] getModerateValues() { return moderateValues; }
+        public double[] getPessimisticValues() { return pessimisticValues; }
+
+        public void setScenarioValues(double[] optimisticValues, double[] moderateValues, double[] pessimisticValues) {
+            this.optimisticValues = optimisticValues;
+            this.moderateValues = moderateValues;
+            this.pessimisticValues = pessimisticValues;
+        }
+
+        public int getPathCount() { return pathCount; }
+        public boolean isMonteCarlo() { return pathCount > 0; }
+        public boolean hasPercentileBands() { return percentileBands != null; }
+        // Bands computed from the closed form rather than from simulated paths
+        public boolean isAnalytic() { return percentileBands != null && pathCount == 0; }
+        public double[] getPercentileLevels() { return percentileLevels; }
+
+        // Values of one percentile at every step, or null if it was not computed
+        public double[] getPercentileBand(double level) {
+            if (percentileLevels == null) return null;
+            for (int i = 0; i < percentileLevels.length; i++) {
+                if (percentileLevels[i] == level) return percentileBands[i];
+            }
+            return null;
+        }
+
+        public void setPercentileBands(int pathCount, double[] percentileLevels, double[][] percentileBands) {
+            this.pathCount = pathCount;
+            this.percentileLevels = percentileLevels;
+            this.percentileBands = percentileBands;
+        }
+
+        public VarianceReduction getVarianceReduction() { return varianceReduction; }
+        public double getMeanFinalValue() { return meanFinalValue; }
+        public double getStandardError() { return standardError; }
+
+        public void setMeanEstimate(VarianceReduction varianceReduction, double meanFinalValue, double standardError) {
+            this.varianceReduction = varianceReduction;
+            this.meanFinalValue = meanFinalValue;
+            this.standardError = standardError;
+        }
+
+        public RiskMetrics getRiskMetrics() { return riskMetrics; }
+        public boolean hasRiskMetrics() { return riskMetrics != null; }
+        public void setRiskMetrics(RiskMetrics riskMetrics) { this.riskMetrics = riskMetrics; }
+
+        public StopReason getStopReason() { return stopReason; }
+        public double getAchievedPrecision() { return achievedPrecision; }
+
+        public void setStopReason(StopReason stopReason, double achievedPrecision) {
+            this.stopReason = stopReason;
+            this.achievedPrecision = achievedPrecision;
+        }
+
+        public void setAchievedPrecision(double achievedPrecision) {
+            this.achievedPrecision = achievedPrecision;
+        }
+
+        // Copy of this result for a different initial amount, labelled with the investment that
+        // asked for it: instruments with identical parameters share one cached result. Simulated
+        // values scale linearly with the amount, so every series is multiplied by the same factor.
+        public SimulationResult scaledTo(Investment investment, double amount) {
+            double factor = amount / initialInvestment;
+            SimulationResult scaled = new SimulationResult(amount, periodInYears, investment, step, 0);
+            if (percentileBands != null) {
+                double[][] bands = new double[percentileBands.length][];
+                for (int i = 0; i < bands.length; i++) {
+                    bands[i] = scale(percentileBands[i], factor);
+                }
+                scaled.setPercentileBands(pathCount, percentileLevels, bands);
+                scaled.setScenarioValues(scaled.getPercentileBand(95), scaled.getPercentileBand(50), scaled.getPercentileBand(5));
+            } else {
+                scaled.setScenarioValues(scale(optimisticValues, factor), scale(moderateValues, factor),
+                        scale(pessimisticValues, factor));
+            }
+            scaled.setFinalValueOptimistic(finalValueOptimistic * factor);
+            scaled.setFinalValueModerate(finalValueModerate * factor);
+            scaled.setFinalValuePessimistic(finalValuePessimistic * factor);
+            scaled.setMeanEstimate(varianceReduction, meanFinalValue * factor, standardError * factor);
+            scaled.setStopReason(stopReason, achievedPrecision);
+            if (riskMetrics != null) {
+                scaled.setRiskMetrics(riskMetrics.scaledBy(factor));
+            }
+            return scaled;
+        }
+
+        private static double[] scale(double[] values, double factor) {
+            double[] scaled = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                scaled[i] = values[i] * factor;
+            }
+            return scaled;
+        }
+
+        // Approximate heap size of the series arrays
+        public long estimatedBytes() {
+            int series = percentileBands != null ? percentileBands.length : 3;
+            return (long) series * size() * Double.BYTES;
+        }
+
+        // Writes one CSV row per step, reading straight from the columns
+        public void writeCsv(Writer out) throws IOException {
+            StringBuilder line = new StringBuilder("date,optimistic,moderate,pessimistic");
+            if (percentileLevels != null) {
+                for (double level : percentileLevels) {
+                    line.append(",p").append((int) level);
+                }
+            }
+            out.write(line.append('\n').toString());
+
+            for (int i = 0; i < size(); i++) {
+                line.setLength(0);
+                line.append(getDate(i)).append(',')
+                        .append(optimisticValues[i]).append(',')
+                        .append(moderateValues[i]).append(',')
+                        .append(pessimisticValues[i]);
+                if (percentileBands != null) {
+                    for (double[] band : percentileBands) {
+                        line.append(',').append(band[i]);
+                    }
+                }
+                out.write(line.append('\n').toString());
+            }
         }
     }
 
@@ -154,6 +317,8 @@ class investment extends JFrame {
     static class DatabaseManager {
         private static final String DB_URL = "jdbc:sqlite:investment_app.db";
         private static DatabaseManager instance;
+        // Shared by all DAOs, so a query borrows an open, tuned connection instead of opening the file
+        private final ConnectionPool pool = ConnectionPool.fromSystemProperties(DB_URL);
 
         private DatabaseManager() {
             initDatabase();
@@ -166,8 +331,13 @@ class investment extends JFrame {
             return instance;
         }
 
+        // A pooled connection; closing it returns it to the pool
         public Connection getConnection() throws SQLException {
-            return DriverManager.getConnection(DB_URL);
+            return pool.getConnection();
+        }
+
+        public ConnectionPool.Metrics getPoolMetrics() {
+            return pool.getMetrics();
         }
 
         private void initDatabase() {
@@ -187,158 +357,2704 @@ class investment extends JFrame {
                                 ");";
                 stmt.execute(createInvestmentTable);
 
+                // Version of the investments table, bumped by triggers on every change from
+                // any connection or process, so readers can cache the catalog until it moves
+                stmt.execute("CREATE TABLE IF NOT EXISTS catalog_version (" +
+                        "id INTEGER PRIMARY KEY CHECK (id = 1)," +
+                        "version INTEGER NOT NULL" +
+                        ");");
+                stmt.execute("INSERT OR IGNORE INTO catalog_version (id, version) VALUES (1, 0)");
+                for (String event : new String[] {"INSERT", "UPDATE", "DELETE"}) {
+                    stmt.execute("CREATE TRIGGER IF NOT EXISTS investments_version_" + event.toLowerCase(Locale.ROOT) +
+                            " AFTER " + event + " ON investments BEGIN " +
+                            "UPDATE catalog_version SET version = version + 1 WHERE id = 1; END;");
+                }
+
                 // Insert sample data if the table is empty
                 if (stmt.executeQuery("SELECT COUNT(*) FROM investments").getInt(1) == 0) {
                     insertSampleData(conn);
                 }
+
+                // Pairwise return correlations; pairs without a row are treated as uncorrelated
+                String createCorrelationTable =
+                        "CREATE TABLE IF NOT EXISTS investment_correlations (" +
+                                "investment_a INTEGER NOT NULL," +
+                                "investment_b INTEGER NOT NULL," +
+                                "correlation REAL NOT NULL," +
+                                "PRIMARY KEY (investment_a, investment_b)," +
+                                "FOREIGN KEY (investment_a) REFERENCES investments(id)," +
+                                "FOREIGN KEY (investment_b) REFERENCES investments(id)" +
+                                ");";
+                stmt.execute(createCorrelationTable);
+
+                if (stmt.executeQuery("SELECT COUNT(*) FROM investment_correlations").getInt(1) == 0) {
+                    insertSampleCorrelations(conn);
+                }
             } catch (SQLException e) {
                 System.err.println("Error initializing database: " + e.getMessage());
                 e.printStackTrace();
             }
         }
 
-        private void insertSampleData(Connection conn) throws SQLException {
-            Statement stmt = conn.createStatement();
+        private void insertSampleData(Connection conn) throws SQLException {
+            Statement stmt = conn.createStatement();
+
+            // Sample investment data
+            String[] insertStatements = {
+                    "INSERT INTO investments (name, symbol, type, current_price, historic_volatility, annual_return) " +
+                            "VALUES ('Apple Inc.', 'AAPL', 'STOCK', 170.50, 0.25, 0.15)",
+
+                    "INSERT INTO investments (name, symbol, type, current_price, historic_volatility, annual_return) " +
+                            "VALUES ('S&P 500 ETF', 'SPY', 'ETF', 420.00, 0.16, 0.10)",
+
+                    "INSERT INTO investments (name, symbol, type, current_price, historic_volatility, annual_return) " +
+                            "VALUES ('10-Year Treasury Bond', 'BOND10', 'BOND', 95.00, 0.05, 0.035)",
+
+                    "INSERT INTO investments (name, symbol, type, current_price, historic_volatility, annual_return) " +
+                            "VALUES ('Bitcoin', 'BTC', 'CRYPTO', 36000.00, 0.75, 0.30)",
+
+                    "INSERT INTO investments (name, symbol, type, current_price, historic_volatility, annual_return) " +
+                            "VALUES ('Real Estate Fund', 'REIT', 'FUND', 210.75, 0.18, 0.08)"
+            };
+
+            for (String sql : insertStatements) {
+                stmt.execute(sql);
+            }
+        }
+
+        private void insertSampleCorrelations(Connection conn) throws SQLException {
+            String sql = "INSERT INTO investment_correlations (investment_a, investment_b, correlation) " +
+                    "SELECT a.id, b.id, ? FROM investments a, investments b WHERE a.symbol = ? AND b.symbol = ?";
+
+            // Sample correlations between the sample investments
+            Object[][] correlations = {
+                    {"AAPL", "SPY", 0.80},
+                    {"AAPL", "BOND10", -0.15},
+                    {"AAPL", "BTC", 0.20},
+                    {"AAPL", "REIT", 0.45},
+                    {"SPY", "BOND10", -0.20},
+                    {"SPY", "BTC", 0.25},
+                    {"SPY", "REIT", 0.60},
+                    {"BOND10", "REIT", 0.10},
+                    {"BTC", "REIT", 0.10}
+            };
+
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (Object[] row : correlations) {
+                    pstmt.setDouble(1, (Double) row[2]);
+                    pstmt.setString(2, (String) row[0]);
+                    pstmt.setString(3, (String) row[1]);
+                    pstmt.executeUpdate();
+                }
+            }
+        }
+    }
+
+    // Immutable snapshot of the investments table at one catalog version, indexed by id and
+    // by symbol. Investment has no setters, so the snapshot can be shared between threads.
+    static final class InvestmentCatalog {
+        private final long version;
+        private final List<Investment> investments;
+        private final Map<Integer, Investment> byId;
+        private final Map<String, Investment> bySymbol;
+
+        InvestmentCatalog(long version, List<Investment> investments) {
+            this.version = version;
+            this.investments = Collections.unmodifiableList(new ArrayList<>(investments));
+            Map<Integer, Investment> byId = new HashMap<>();
+            Map<String, Investment> bySymbol = new HashMap<>();
+            for (Investment investment : investments) {
+                byId.put(investment.getId(), investment);
+                bySymbol.put(investment.getSymbol(), investment);
+            }
+            this.byId = Collections.unmodifiableMap(byId);
+            this.bySymbol = Collections.unmodifiableMap(bySymbol);
+        }
+
+        public long getVersion() { return version; }
+        public List<Investment> getInvestments() { return investments; }
+        public Investment getById(int id) { return byId.get(id); }
+        public Investment getBySymbol(String symbol) { return bySymbol.get(symbol); }
+        public int size() { return investments.size(); }
+    }
+
+    // Retrieving investment data from database
+    static class InvestmentDao {
+        // How long a catalog snapshot is served before the version row is checked again
+        static final long VERSION_CHECK_INTERVAL_NANOS = 1_000_000_000L;
+
+        private final DatabaseManager dbManager;
+
+        // Read-through cache of the investments table. Readers get the current snapshot with
+        // a volatile read; it is reloaded only when catalog_version has changed.
+        private volatile InvestmentCatalog catalog;
+        private volatile long checkedAt;
+        private final Object refreshLock = new Object();
+
+        public InvestmentDao() {
+            this.dbManager = DatabaseManager.getInstance();
+        }
+
+        // Unmodifiable list in table order
+        public List<Investment> getAllInvestments() {
+            return getCatalog().getInvestments();
+        }
+
+        public Investment getInvestmentById(int id) {
+            return getCatalog().getById(id);
+        }
+
+        public Investment getInvestmentBySymbol(String symbol) {
+            return getCatalog().getBySymbol(symbol);
+        }
+
+        public InvestmentCatalog getCatalog() {
+            InvestmentCatalog current = catalog;
+            if (current != null && System.nanoTime() - checkedAt < VERSION_CHECK_INTERVAL_NANOS) {
+                return current;
+            }
+            synchronized (refreshLock) {
+                // Another thread may have refreshed while this one waited
+                current = catalog;
+                if (current != null && System.nanoTime() - checkedAt < VERSION_CHECK_INTERVAL_NANOS) {
+                    return current;
+                }
+                try (Connection conn = dbManager.getConnection()) {
+                    long version = readVersion(conn);
+                    if (current == null || current.getVersion() != version) {
+                        current = loadCatalog(conn, version);
+                        catalog = current;
+                    }
+                    checkedAt = System.nanoTime();
+                } catch (SQLException e) {
+                    System.err.println("Error fetching investments: " + e.getMessage());
+                    e.printStackTrace();
+                    // Keep serving the last snapshot; the next call tries again
+                    if (current == null) {
+                        current = new InvestmentCatalog(-1, Collections.emptyList());
+                    }
+                }
+                return current;
+            }
+        }
+
+        private long readVersion(Connection conn) throws SQLException {
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT version FROM catalog_version WHERE id = 1");
+                 ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+
+        private InvestmentCatalog loadCatalog(Connection conn, long version) throws SQLException {
+            List<Investment> investments = new ArrayList<>();
+            String sql = "SELECT * FROM investments";
+
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+
+                while (rs.next()) {
+                    Investment investment = new Investment(
+                            rs.getInt("id"),
+                            rs.getString("name"),
+                            rs.getString("symbol"),
+                            rs.getString("type"),
+                            rs.getDouble("current_price"),
+                            rs.getDouble("historic_volatility"),
+                            rs.getDouble("annual_return")
+                    );
+                    investments.add(investment);
+                }
+            }
+
+            return new InvestmentCatalog(version, investments);
+        }
+
+        // Correlation matrix between the given investments, in list order
+        public double[][] getCorrelationMatrix(List<Investment> investments) {
+            int n = investments.size();
+            double[][] correlation = new double[n][n];
+            Map<Integer, Integer> indexById = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                correlation[i][i] = 1.0;
+                indexById.put(investments.get(i).getId(), i);
+            }
+
+            String sql = "SELECT investment_a, investment_b, correlation FROM investment_correlations";
+            try (Connection conn = dbManager.getConnection();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+
+                while (rs.next()) {
+                    Integer a = indexById.get(rs.getInt("investment_a"));
+                    Integer b = indexById.get(rs.getInt("investment_b"));
+                    if (a != null && b != null && !a.equals(b)) {
+                        correlation[a][b] = rs.getDouble("correlation");
+                        correlation[b][a] = correlation[a][b];
+                    }
+                }
+            } catch (SQLException e) {
+                System.err.println("Error fetching correlations: " + e.getMessage());
+                e.printStackTrace();
+            }
+
+            return correlation;
+        }
+    }
+
+    // Market data service
+    static class MarketDataService {
+        private final InvestmentDao investmentDao;
+
+        public MarketDataService() {
+            this.investmentDao = new InvestmentDao();
+        }
+
+        public List<Investment> getAllInvestments() {
+            return investmentDao.getAllInvestments();
+        }
+
+        public Investment getInvestmentById(int id) {
+            return investmentDao.getInvestmentById(id);
+        }
+
+        public Investment getInvestmentBySymbol(String symbol) {
+            return investmentDao.getInvestmentBySymbol(symbol);
+        }
+
+        public double[][] getCorrelationMatrix(List<Investment> investments) {
+            return investmentDao.getCorrelationMatrix(investments);
+        }
+    }
+
+    // A weighted set of investments with correlated returns. The correlation matrix is
+    // Cholesky-factorized once here, so the portfolio can be simulated any number of times.
+    static class Portfolio {
+        private final List<Investment> investments;
+        private final double[] weights;
+        private final double[] choleskyFactor;
+
+        public Portfolio(List<Investment> investments, double[] weights, double[][] correlation) {
+            int n = investments.size();
+            if (n == 0 || weights.length != n || correlation.length != n) {
+                throw new IllegalArgumentException("Investments, weights and correlation matrix must have the same size");
+            }
+
+            // Normalize the weights so they sum to 1
+            double total = 0;
+            for (double weight : weights) {
+                if (weight < 0) throw new IllegalArgumentException("Weights must not be negative");
+                total += weight;
+            }
+            if (total <= 0) throw new IllegalArgumentException("At least one weight must be positive");
+
+            this.investments = new ArrayList<>(investments);
+            this.weights = new double[n];
+            for (int i = 0; i < n; i++) {
+                this.weights[i] = weights[i] / total;
+            }
+            this.choleskyFactor = cholesky(correlation);
+        }
+
+        // Equal weight for every investment
+        public static Portfolio equalWeighted(List<Investment> investments, double[][] correlation) {
+            double[] weights = new double[investments.size()];
+            Arrays.fill(weights, 1.0);
+            return new Portfolio(investments, weights, correlation);
+        }
+
+        public List<Investment> getInvestments() { return investments; }
+        public int size() { return weights.length; }
+        public double getWeight(int index) { return weights[index]; }
+
+        // Lower-triangular factor L with L * L^T = correlation, packed row by row:
+        // element (i, j) with j <= i is stored at i * (i + 1) / 2 + j
+        static double[] cholesky(double[][] correlation) {
+            int n = correlation.length;
+            double[] factor = new double[n * (n + 1) / 2];
+            for (int i = 0; i < n; i++) {
+                int rowI = i * (i + 1) / 2;
+                for (int j = 0; j <= i; j++) {
+                    int rowJ = j * (j + 1) / 2;
+                    double sum = correlation[i][j];
+                    for (int k = 0; k < j; k++) {
+                        sum -= factor[rowI + k] * factor[rowJ + k];
+                    }
+                    if (i == j) {
+                        if (sum <= 0) {
+                            throw new IllegalArgumentException("Correlation matrix is not positive definite");
+                        }
+                        factor[rowI + i] = Math.sqrt(sum);
+                    } else {
+                        factor[rowI + j] = sum / factor[rowJ + j];
+                    }
+                }
+            }
+            return factor;
+        }
+
+        // out[i][p] = sum over j <= i of L(i, j) * z[j][p] for a block of paths, where
+        // z and out hold 'block' values per asset. The inner loops run over contiguous
+        // paths, and four factor columns are applied per pass over the output row.
+        void correlate(double[] z, double[] out, int block) {
+            int n = weights.length;
+            for (int i = 0; i < n; i++) {
+                int row = i * (i + 1) / 2;
+                int outOffset = i * block;
+                for (int p = 0; p < block; p++) {
+                    out[outOffset + p] = 0;
+                }
+                int j = 0;
+                for (; j + 3 <= i; j += 4) {
+                    double l0 = choleskyFactor[row + j];
+                    double l1 = choleskyFactor[row + j + 1];
+                    double l2 = choleskyFactor[row + j + 2];
+                    double l3 = choleskyFactor[row + j + 3];
+                    int z0 = j * block, z1 = z0 + block, z2 = z1 + block, z3 = z2 + block;
+                    for (int p = 0; p < block; p++) {
+                        out[outOffset + p] += l0 * z[z0 + p] + l1 * z[z1 + p] + l2 * z[z2 + p] + l3 * z[z3 + p];
+                    }
+                }
+                for (; j <= i; j++) {
+                    double l = choleskyFactor[row + j];
+                    int zOffset = j * block;
+                    for (int p = 0; p < block; p++) {
+                        out[outOffset + p] += l * z[zOffset + p];
+                    }
+                }
+            }
+        }
+
+        // Weighted expected return and volatility, used to describe the portfolio as a whole
+        public Investment toInvestment() {
+            int n = weights.length;
+            double expectedReturn = 0;
+            for (int i = 0; i < n; i++) {
+                expectedReturn += weights[i] * investments.get(i).getAnnualReturn();
+            }
+
+            // Variance is |L^T s|^2 with s the weighted volatilities, since L * L^T is the correlation
+            double variance = 0;
+            for (int j = 0; j < n; j++) {
+                double sum = 0;
+                for (int i = j; i < n; i++) {
+                    sum += choleskyFactor[i * (i + 1) / 2 + j] * weights[i] * investments.get(i).getHistoricVolatility();
+                }
+                variance += sum * sum;
+            }
+
+            return new Investment(0, "Portfolio (" + n + " investments)", "PORTFOLIO", "PORTFOLIO",
+                    0, Math.sqrt(variance), expectedReturn);
+        }
+    }
+
+    // Variance-reduction technique used by a Monte Carlo run
+    enum VarianceReduction {
+        NONE("None"),
+        ANTITHETIC("Antithetic Variates"),
+        CONTROL_VARIATE("Control Variate"),
+        SOBOL("Sobol + Brownian Bridge");
+
+        private final String description;
+
+        VarianceReduction(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    // Why an adaptive Monte Carlo run stopped adding paths
+    enum StopReason {
+        PRECISION_REACHED("target precision reached"),
+        TIME_BUDGET("time budget used up"),
+        PATH_LIMIT("path limit reached");
+
+        private final String description;
+
+        StopReason(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    // Sobol low-discrepancy sequence (32-bit, Gray-code order). Direction numbers are built
+    // from primitive polynomials over GF(2), searched in order of degree, with fixed
+    // pseudo-random odd initial values; dimension 0 is the van der Corput sequence.
+    static class SobolSequence {
+        private static final int BITS = 32;
+        private static final long INITIAL_VALUES_SEED = 0x50B01L;
+
+        private final int[][] directions;
+
+        public SobolSequence(int dimensions) {
+            directions = new int[dimensions][BITS];
+            for (int k = 1; k <= BITS; k++) {
+                directions[0][k - 1] = (int) (1L << (BITS - k));
+            }
+
+            SplittableRandom initialValues = new SplittableRandom(INITIAL_VALUES_SEED);
+            int degree = 1;
+            int coefficients = 0;
+            for (int d = 1; d < dimensions; d++) {
+                // Next primitive polynomial x^degree + ... + 1
+                int polynomial;
+                while (true) {
+                    if (coefficients >= 1 << (degree - 1)) {
+                        degree++;
+                        coefficients = 0;
+                    }
+                    polynomial = (1 << degree) | (coefficients++ << 1) | 1;
+                    if (isPrimitive(polynomial, degree)) break;
+                }
+
+                long[] m = new long[BITS + 1];
+                for (int k = 1; k <= BITS; k++) {
+                    if (k <= degree) {
+                        m[k] = ((long) initialValues.nextInt(1 << (k - 1)) << 1) | 1;
+                    } else {
+                        // m_k = 2 a_1 m_(k-1) ^ 4 a_2 m_(k-2) ^ ... ^ 2^s m_(k-s) ^ m_(k-s)
+                        long value = m[k - degree] ^ (m[k - degree] << degree);
+                        for (int i = 1; i < degree; i++) {
+                            if ((polynomial >>> (degree - i) & 1) != 0) {
+                                value ^= m[k - i] << i;
+                            }
+                        }
+                        m[k] = value;
+                    }
+                    directions[d][k - 1] = (int) (m[k] << (BITS - k));
+                }
+            }
+        }
+
+        // The polynomial is primitive when x has multiplicative order 2^degree - 1 modulo it
+        private static boolean isPrimitive(int polynomial, int degree) {
+            int period = (1 << degree) - 1;
+            int x = 1;
+            for (int i = 1; i <= period; i++) {
+                x <<= 1;
+                if ((x & (1 << degree)) != 0) x ^= polynomial;
+                if (x == 1) return i == period;
+            }
+            return false;
+        }
+
+        public int dimensions() {
+            return directions.length;
+        }
+
+        // Writes the coordinates of point 'index' as unsigned 32-bit fractions
+        public void point(long index, int[] point) {
+            long gray = index ^ (index >>> 1);
+            for (int d = 0; d < directions.length; d++) {
+                int x = 0;
+                long bits = gray;
+                for (int bit = 0; bits != 0; bit++, bits >>>= 1) {
+                    if ((bits & 1) != 0) x ^= directions[d][bit];
+                }
+                point[d] = x;
+            }
+        }
+    }
+
+    // Builds the increments of a unit-variance Brownian path of 'steps' steps from as many
+    // standard normals. The first normals fix the coarsest features (W at the end, then the
+    // midpoints), which is where a low-discrepancy sequence has its best dimensions.
+    static class BrownianBridge {
+        private final int steps;
+        private final int[] bridgeIndex, leftIndex, rightIndex;
+        private final double[] leftWeight, rightWeight, stdDev;
+
+        public BrownianBridge(int steps) {
+            this.steps = steps;
+            bridgeIndex = new int[steps];
+            leftIndex = new int[steps];
+            rightIndex = new int[steps];
+            leftWeight = new double[steps];
+            rightWeight = new double[steps];
+            stdDev = new double[steps];
+
+            bridgeIndex[0] = steps;
+            stdDev[0] = Math.sqrt(steps);
+
+            // Breadth-first over intervals, so coarse midpoints come first
+            ArrayDeque<int[]> intervals = new ArrayDeque<>();
+            intervals.add(new int[] {0, steps});
+            int next = 1;
+            while (!intervals.isEmpty()) {
+                int[] interval = intervals.poll();
+                int left = interval[0], right = interval[1];
+                if (right - left < 2) continue;
+
+                int mid = (left + right) >>> 1;
+                bridgeIndex[next] = mid;
+                leftIndex[next] = left;
+                rightIndex[next] = right;
+                leftWeight[next] = (double) (right - mid) / (right - left);
+                rightWeight[next] = (double) (mid - left) / (right - left);
+                stdDev[next] = Math.sqrt((double) (mid - left) * (right - mid) / (right - left));
+                next++;
+                intervals.add(new int[] {left, mid});
+                intervals.add(new int[] {mid, right});
+            }
+        }
+
+        // normals[0, steps) -> out[offset + k * stride] = W(k + 1) - W(k); path is scratch of steps + 1
+        public void transform(double[] normals, double[] path, double[] out, int offset, int stride) {
+            path[0] = 0;
+            path[steps] = stdDev[0] * normals[0];
+            for (int i = 1; i < steps; i++) {
+                path[bridgeIndex[i]] = leftWeight[i] * path[leftIndex[i]]
+                        + rightWeight[i] * path[rightIndex[i]]
+                        + stdDev[i] * normals[i];
+            }
+            for (int k = 0; k < steps; k++) {
+                out[offset + k * stride] = path[k + 1] - path[k];
+            }
+        }
+    }
+
+    // Mergeable quantile sketch with bounded relative error: values fall into logarithmic
+    // buckets whose bounds differ by the factor gamma (DDSketch). Memory grows with the
+    // spread log(max / min) of the values, not with their count, and sketches filled by
+    // different fork/join leaves merge exactly. Each bucket also keeps the sum of its values,
+    // so tail means are exact apart from the bucket that straddles the quantile.
+    static class QuantileSketch {
+        private static final double MIN_POSITIVE = 1e-12;
+
+        private final double gamma;
+        private final double logGamma;
+        private long[] counts = new long[0];
+        private double[] sums = new double[0];
+        private int offset; // bucket index of counts[0]
+        private long zeroCount;
+        private long count;
+
+        QuantileSketch(double relativeAccuracy) {
+            this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+            this.logGamma = Math.log(gamma);
+        }
+
+        public long getCount() { return count; }
+
+        public void add(double value) {
+            count++;
+            if (value < MIN_POSITIVE) {
+                zeroCount++;
+                return;
+            }
+            int index = (int) Math.ceil(Math.log(value) / logGamma);
+            ensureBucket(index, index);
+            counts[index - offset]++;
+            sums[index - offset] += value;
+        }
+
+        public void merge(QuantileSketch other) {
+            count += other.count;
+            zeroCount += other.zeroCount;
+            if (other.counts.length == 0) return;
+            ensureBucket(other.offset, other.offset + other.counts.length - 1);
+            for (int i = 0; i < other.counts.length; i++) {
+                counts[other.offset - offset + i] += other.counts[i];
+                sums[other.offset - offset + i] += other.sums[i];
+            }
+        }
+
+        private void ensureBucket(int low, int high) {
+            if (counts.length == 0) {
+                offset = low;
+                counts = new long[high - low + 1];
+                sums = new double[high - low + 1];
+                return;
+            }
+            int newLow = Math.min(low, offset);
+            int newHigh = Math.max(high, offset + counts.length - 1);
+            if (newLow == offset && newHigh == offset + counts.length - 1) return;
+            long[] newCounts = new long[newHigh - newLow + 1];
+            double[] newSums = new double[newHigh - newLow + 1];
+            System.arraycopy(counts, 0, newCounts, offset - newLow, counts.length);
+            System.arraycopy(sums, 0, newSums, offset - newLow, sums.length);
+            counts = newCounts;
+            sums = newSums;
+            offset = newLow;
+        }
+
+        // Value at quantile q (0..1), within the relative accuracy. Inside the bucket holding
+        // that rank the values are assumed to be spread evenly on a log scale.
+        public double quantile(double q) {
+            if (count == 0) return Double.NaN;
+            long rank = (long) Math.floor(q * (count - 1));
+            if (rank < zeroCount) return 0;
+            long seen = zeroCount;
+            for (int i = 0; i < counts.length; i++) {
+                if (seen + counts[i] > rank) {
+                    double fraction = (rank - seen + 0.5) / counts[i];
+                    return Math.pow(gamma, offset + i - 1 + fraction);
+                }
+                seen += counts[i];
+            }
+            return Double.NaN;
+        }
+
+        // Mean of the smallest fraction q of the values
+        public double lowerTailMean(double q) {
+            if (count == 0) return Double.NaN;
+            double wanted = Math.max(1, q * count);
+            double taken = Math.min(zeroCount, wanted);
+            double sum = 0;
+            for (int i = 0; i < counts.length && taken < wanted; i++) {
+                if (counts[i] == 0) continue;
+                double part = Math.min(counts[i], wanted - taken);
+                sum += sums[i] * (part / counts[i]);
+                taken += part;
+            }
+            return sum / taken;
+        }
+    }
+
+    // Path-dependent risk figures of a Monte Carlo run. Value at risk and expected shortfall
+    // (CVaR) are losses of the final value against the initial amount over the whole horizon,
+    // at the CONFIDENCE level. They are 0, not negative, when even those paths end with a gain,
+    // as growth assets usually do over many years. Drawdowns are fractions of the running
+    // peak and recovery times are in quarters.
+    static class RiskMetrics {
+        static final double CONFIDENCE = 0.95;
+
+        private final double valueAtRisk;
+        private final double expectedShortfall;
+        private final double meanMaxDrawdown;
+        private final double maxDrawdownPercentile; // at the CONFIDENCE level
+        private final double medianRecoveryQuarters;
+        private final double unrecoveredFraction;
+
+        RiskMetrics(double valueAtRisk, double expectedShortfall, double meanMaxDrawdown,
+                    double maxDrawdownPercentile, double medianRecoveryQuarters, double unrecoveredFraction) {
+            this.valueAtRisk = valueAtRisk;
+            this.expectedShortfall = expectedShortfall;
+            this.meanMaxDrawdown = meanMaxDrawdown;
+            this.maxDrawdownPercentile = maxDrawdownPercentile;
+            this.medianRecoveryQuarters = medianRecoveryQuarters;
+            this.unrecoveredFraction = unrecoveredFraction;
+        }
+
+        public double getValueAtRisk() { return valueAtRisk; }
+        public double getExpectedShortfall() { return expectedShortfall; }
+        public double getMeanMaxDrawdown() { return meanMaxDrawdown; }
+        public double getMaxDrawdownPercentile() { return maxDrawdownPercentile; }
+        // NaN when no path recovered from its deepest drawdown
+        public double getMedianRecoveryQuarters() { return medianRecoveryQuarters; }
+        public double getUnrecoveredFraction() { return unrecoveredFraction; }
+
+        // Losses scale with the initial amount; drawdowns and times do not
+        public RiskMetrics scaledBy(double factor) {
+            return new RiskMetrics(valueAtRisk * factor, expectedShortfall * factor, meanMaxDrawdown,
+                    maxDrawdownPercentile, medianRecoveryQuarters, unrecoveredFraction);
+        }
+    }
+
+    // Consumes paths as they are generated and keeps only sketches and a recovery-time
+    // histogram, so its size does not depend on the number of paths
+    static class RiskAccumulator {
+        private static final double RELATIVE_ACCURACY = 0.005;
+
+        private final QuantileSketch finalValues = new QuantileSketch(RELATIVE_ACCURACY);
+        private final QuantileSketch maxDrawdowns = new QuantileSketch(RELATIVE_ACCURACY);
+        private double drawdownSum;
+        // recoveryCounts[k]: paths that regained their pre-drawdown peak k quarters after the trough
+        private final long[] recoveryCounts;
+        private long unrecovered;
+
+        RiskAccumulator(int steps) {
+            this.recoveryCounts = new long[steps + 1];
+        }
+
+        // recoveryQuarters is negative if the path never got back to its peak
+        public void add(double finalValue, double maxDrawdown, int recoveryQuarters) {
+            finalValues.add(finalValue);
+            maxDrawdowns.add(maxDrawdown);
+            drawdownSum += maxDrawdown;
+            if (maxDrawdown > 0) {
+                if (recoveryQuarters >= 0) {
+                    recoveryCounts[recoveryQuarters]++;
+                } else {
+                    unrecovered++;
+                }
+            }
+        }
+
+        public void merge(RiskAccumulator other) {
+            finalValues.merge(other.finalValues);
+            maxDrawdowns.merge(other.maxDrawdowns);
+            drawdownSum += other.drawdownSum;
+            for (int i = 0; i < recoveryCounts.length; i++) {
+                recoveryCounts[i] += other.recoveryCounts[i];
+            }
+            unrecovered += other.unrecovered;
+        }
+
+        public long getPathCount() { return finalValues.getCount(); }
+
+        public RiskMetrics toMetrics(double initialAmount) {
+            long paths = finalValues.getCount();
+            double tail = 1 - RiskMetrics.CONFIDENCE;
+
+            long recovered = 0;
+            for (long c : recoveryCounts) recovered += c;
+            double medianRecovery = Double.NaN;
+            long seen = 0;
+            for (int k = 0; k < recoveryCounts.length && recovered > 0; k++) {
+                seen += recoveryCounts[k];
+                if (2 * seen >= recovered) {
+                    medianRecovery = k;
+                    break;
+                }
+            }
+
+            return new RiskMetrics(Math.max(0, initialAmount - finalValues.quantile(tail)),
+                    Math.max(0, initialAmount - finalValues.lowerTailMean(tail)),
+                    drawdownSum / paths, maxDrawdowns.quantile(RiskMetrics.CONFIDENCE),
+                    medianRecovery, (double) unrecovered / paths);
+        }
+    }
+
+    // Steps a block of paths one quarter at a time and, for engines created with a kernel,
+    // also generates their shocks. VectorPathKernel (its own source file, compiled and run
+    // with --add-modules jdk.incubator.vector) works on many paths per instruction; load()
+    // falls back to ScalarPathKernel, which computes the same values one path at a time,
+    // when that class or the module is missing.
+    interface PathKernel {
+        // normals[k * stride + j] for steps k < steps and paths from <= j < to. states[j] is the
+        // SplitMix64 state of path j and is advanced past the numbers used; each pair of
+        // uniforms becomes two consecutive shocks of the same path (Box-Muller).
+        void fillNormals(long[] states, int from, int to, double[] normals, int stride, int steps);
+
+        // Quarter 'step' for paths from <= j < to: current *= growth + z * shock, then the
+        // running peak, the deepest drawdown with its trough step, and the quarters it took
+        // to regain the earlier peak (-1 until then) are updated
+        void step(double[] current, double[] peak, double[] maxDrawdown, double[] troughStep,
+                  double[] recoveryQuarters, double[] normals, int offset, int from, int to,
+                  double growth, double shock, int step);
+
+        String getName();
+
+        static PathKernel load() {
+            try {
+                return (PathKernel) Class.forName("VectorPathKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return new ScalarPathKernel();
+            }
+        }
+    }
+
+    static class ScalarPathKernel implements PathKernel {
+        private static final double TWO_PI = 2 * Math.PI;
+
+        public void fillNormals(long[] states, int from, int to, double[] normals, int stride, int steps) {
+            for (int j = from; j < to; j++) {
+                long state = states[j];
+                for (int k = 0; k < steps; k += 2) {
+                    state += RandomStreams.GOLDEN_GAMMA;
+                    double u1 = 1 - (RandomStreams.mix64(state) >>> 11) * 0x1.0p-53;
+                    state += RandomStreams.GOLDEN_GAMMA;
+                    double u2 = (RandomStreams.mix64(state) >>> 11) * 0x1.0p-53;
+                    double radius = Math.sqrt(-2 * Math.log(u1));
+                    double angle = TWO_PI * u2;
+                    normals[k * stride + j] = radius * Math.cos(angle);
+                    if (k + 1 < steps) {
+                        normals[(k + 1) * stride + j] = radius * Math.sin(angle);
+                    }
+                }
+                states[j] = state;
+            }
+        }
+
+        public void step(double[] current, double[] peak, double[] maxDrawdown, double[] troughStep,
+                         double[] recoveryQuarters, double[] normals, int offset, int from, int to,
+                         double growth, double shock, int step) {
+            for (int j = from; j < to; j++) {
+                double value = current[j] * (growth + normals[offset + j] * shock);
+                current[j] = value;
+                if (value >= peak[j]) {
+                    // The peak is at least the one before the deepest drawdown
+                    if (recoveryQuarters[j] < 0 && maxDrawdown[j] > 0) {
+                        recoveryQuarters[j] = step - troughStep[j];
+                    }
+                    peak[j] = value;
+                } else {
+                    double drawdown = 1 - value / peak[j];
+                    if (drawdown > maxDrawdown[j]) {
+                        maxDrawdown[j] = drawdown;
+                        troughStep[j] = step;
+                        recoveryQuarters[j] = -1;
+                    }
+                }
+            }
+        }
+
+        public String getName() {
+            return "scalar";
+        }
+    }
+
+    // Options for a percentile-band simulation. Unless a path-dependent feature is requested,
+    // the engine computes the bands from the closed form instead of simulating paths.
+    static class SimulationOptions {
+        private int pathCount = SimulationEngine.DEFAULT_PATH_COUNT;
+        private long seed = SimulationEngine.DEFAULT_SEED;
+        private VarianceReduction varianceReduction = VarianceReduction.NONE;
+        private boolean monteCarloRequested;
+        // Adaptive runs: relative half-width of the 95% confidence interval of P5 and P95
+        // (0.005 = within 0.5%), and a wall-clock budget; pathCount becomes the upper limit
+        private double targetPrecision;
+        private long timeBudgetMillis;
+        private boolean riskMetricsRequested;
+
+        public int getPathCount() { return pathCount; }
+        public void setPathCount(int pathCount) { this.pathCount = pathCount; }
+
+        public long getSeed() { return seed; }
+        public void setSeed(long seed) { this.seed = seed; }
+
+        public VarianceReduction getVarianceReduction() { return varianceReduction; }
+        public void setVarianceReduction(VarianceReduction varianceReduction) {
+            this.varianceReduction = varianceReduction;
+        }
+
+        public boolean isMonteCarloRequested() { return monteCarloRequested; }
+        public void setMonteCarloRequested(boolean monteCarloRequested) {
+            this.monteCarloRequested = monteCarloRequested;
+        }
+
+        public double getTargetPrecision() { return targetPrecision; }
+        public void setTargetPrecision(double targetPrecision) { this.targetPrecision = targetPrecision; }
+
+        public long getTimeBudgetMillis() { return timeBudgetMillis; }
+        public void setTimeBudgetMillis(long timeBudgetMillis) { this.timeBudgetMillis = timeBudgetMillis; }
+
+        public boolean isRiskMetricsRequested() { return riskMetricsRequested; }
+        public void setRiskMetricsRequested(boolean riskMetricsRequested) {
+            this.riskMetricsRequested = riskMetricsRequested;
+        }
+
+        public boolean isAdaptive() {
+            return targetPrecision > 0 || timeBudgetMillis > 0;
+        }
+
+        // Risk metrics alone don't need stored paths: they are streamed next to the analytic bands
+        public boolean requiresPaths() {
+            return monteCarloRequested || varianceReduction != VarianceReduction.NONE || isAdaptive();
+        }
+    }
+
+    // Every combination of instrument x horizon x amount, e.g. for nightly reports
+    static class ScenarioGrid {
+        static final int[] STANDARD_YEARS = {1, 3, 5, 10, 20, 30};
+
+        private final List<Investment> investments;
+        private final int[] years;
+        private final double[] amounts;
+
+        public ScenarioGrid(List<Investment> investments, int[] years, double[] amounts) {
+            if (investments.isEmpty() || years.length == 0 || amounts.length == 0) {
+                throw new IllegalArgumentException("Scenario grid must not be empty");
+            }
+            this.investments = new ArrayList<>(investments);
+            this.years = years.clone();
+            this.amounts = amounts.clone();
+        }
+
+        public List<Investment> getInvestments() { return investments; }
+        public int[] getYears() { return years; }
+        public double[] getAmounts() { return amounts; }
+
+        public int getMaxYears() {
+            int max = 0;
+            for (int y : years) max = Math.max(max, y);
+            return max;
+        }
+
+        public int size() {
+            return investments.size() * years.length * amounts.length;
+        }
+    }
+
+    // Percentiles of every grid cell. Only unit-amount values are stored, one double per
+    // (instrument, horizon, percentile); amounts are applied when a cell is read.
+    static class ScenarioGridResult {
+        private final ScenarioGrid grid;
+        private final double[] percentileLevels;
+        private final double[] unitValues;
+
+        ScenarioGridResult(ScenarioGrid grid, double[] percentileLevels) {
+            this.grid = grid;
+            this.percentileLevels = percentileLevels;
+            this.unitValues = new double[grid.getInvestments().size() * grid.getYears().length * percentileLevels.length];
+        }
+
+        private int index(int investmentIndex, int yearsIndex, int levelIndex) {
+            return (investmentIndex * grid.getYears().length + yearsIndex) * percentileLevels.length + levelIndex;
+        }
+
+        void setUnitValue(int investmentIndex, int yearsIndex, int levelIndex, double value) {
+            unitValues[index(investmentIndex, yearsIndex, levelIndex)] = value;
+        }
+
+        public ScenarioGrid getGrid() { return grid; }
+        public double[] getPercentileLevels() { return percentileLevels; }
+
+        public double getValue(int investmentIndex, int yearsIndex, int amountIndex, int levelIndex) {
+            return unitValues[index(investmentIndex, yearsIndex, levelIndex)] * grid.getAmounts()[amountIndex];
+        }
+
+        // One CSV row per cell: symbol, years, amount and the percentiles
+        public void writeCsv(Writer out) throws IOException {
+            StringBuilder line = new StringBuilder("symbol,years,amount");
+            for (double level : percentileLevels) {
+                line.append(",p").append((int) level);
+            }
+            out.write(line.append('\n').toString());
+
+            List<Investment> investments = grid.getInvestments();
+            for (int i = 0; i < investments.size(); i++) {
+                for (int y = 0; y < grid.getYears().length; y++) {
+                    for (int a = 0; a < grid.getAmounts().length; a++) {
+                        line.setLength(0);
+                        line.append(investments.get(i).getSymbol()).append(',')
+                                .append(grid.getYears()[y]).append(',')
+                                .append(grid.getAmounts()[a]);
+                        for (int l = 0; l < percentileLevels.length; l++) {
+                            line.append(',').append(getValue(i, y, a, l));
+                        }
+                        out.write(line.append('\n').toString());
+                    }
+                }
+            }
+        }
+    }
+
+    // Size-bounded LRU cache of Monte Carlo results simulated for an initial amount of 1.
+    // Results scale linearly with the amount, so a hit only needs a scalar multiply.
+    static class SimulationCache {
+        static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+        private final long maxBytes;
+        private final LinkedHashMap<Key, SimulationResult> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long currentBytes;
+        private long hits, misses, evictions;
+
+        public SimulationCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        // Everything a unit-amount Monte Carlo result depends on. Return and volatility are
+        // part of the key, so a changed investments row can never be served a stale result.
+        // Which instrument asked is not: instruments with the same parameters share one
+        // result, and scaledTo labels every hit with the instrument that asked for it.
+        static final class Key {
+            private final double annualReturn;
+            private final double volatility;
+            private final int periodInYears;
+            private final int pathCount;
+            private final long seed;
+            private final VarianceReduction varianceReduction;
+            private final boolean kernelShocks;
+
+            Key(Investment investment, int periodInYears, int pathCount, long seed,
+                VarianceReduction varianceReduction, boolean kernelShocks) {
+                this.annualReturn = investment.getAnnualReturn();
+                this.volatility = investment.getHistoricVolatility();
+                this.periodInYears = periodInYears;
+                this.pathCount = pathCount;
+                this.seed = seed;
+                this.varianceReduction = varianceReduction;
+                this.kernelShocks = kernelShocks;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) return true;
+                if (!(o instanceof Key)) return false;
+                Key other = (Key) o;
+                return Double.compare(annualReturn, other.annualReturn) == 0
+                        && Double.compare(volatility, other.volatility) == 0
+                        && periodInYears == other.periodInYears
+                        && pathCount == other.pathCount
+                        && seed == other.seed
+                        && varianceReduction == other.varianceReduction
+                        && kernelShocks == other.kernelShocks;
+            }
+
+            @Override
+            public int hashCode() {
+                return Objects.hash(annualReturn, volatility, periodInYears, pathCount, seed,
+                        varianceReduction, kernelShocks);
+            }
+        }
+
+        public synchronized SimulationResult get(Key key) {
+            SimulationResult result = entries.get(key);
+            if (result != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return result;
+        }
+
+        public synchronized void put(Key key, SimulationResult unitResult) {
+            long bytes = unitResult.estimatedBytes();
+            if (bytes > maxBytes) return;
+
+            SimulationResult previous = entries.put(key, unitResult);
+            if (previous != null) {
+                currentBytes -= previous.estimatedBytes();
+            }
+            currentBytes += bytes;
+
+            // Evict least recently used entries until the cache fits again
+            Iterator<Map.Entry<Key, SimulationResult>> iterator = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<Key, SimulationResult> eldest = iterator.next();
+                currentBytes -= eldest.getValue().estimatedBytes();
+                iterator.remove();
+                evictions++;
+            }
+        }
+
+        public synchronized long getHits() { return hits; }
+        public synchronized long getMisses() { return misses; }
+        public synchronized long getEvictions() { return evictions; }
+        public synchronized int size() { return entries.size(); }
+        public synchronized long getCurrentBytes() { return currentBytes; }
+
+        public synchronized double getHitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("SimulationCache[entries=%d, bytes=%,d, hits=%d, misses=%d, evictions=%d, hitRate=%.1f%%]",
+                    entries.size(), currentBytes, hits, misses, evictions, getHitRate() * 100);
+        }
+    }
+
+    // Simulation engine
+    static class SimulationEngine {
+        // Percentiles reported by the Monte Carlo mode
+        static final double[] PERCENTILE_LEVELS = {5, 25, 50, 75, 95};
+        static final int DEFAULT_PATH_COUNT = 10_000;
+        static final long DEFAULT_SEED = 20240601L;
+        static final Period QUARTER = Period.ofMonths(3);
+
+        // Paths simulated by a single fork/join leaf task
+        private static final int PATHS_PER_TASK = 512;
+        // Paths whose shocks are drawn and stepped together inside a leaf task
+        private static final int PATH_BLOCK = 64;
+        // Independently shifted copies of the Sobol points, used to estimate the standard error
+        private static final int SOBOL_REPLICATES = 16;
+        // First batch of an adaptive run; later batches double the paths simulated so far
+        private static final int ADAPTIVE_FIRST_BATCH = 2048;
+        // z value of the two-sided 95% confidence intervals used by adaptive runs
+        private static final double CONFIDENCE_Z = 1.959964;
+
+        // Package-private, like the other members shared between nested classes: touching a
+        // nestmate's private member makes the JVM load the Swing frame as the nest host,
+        // which SimulationRunner must not do
+        final ForkJoinPool pool;
+        final SimulationCache cache;
+        // Steps every path; when kernelShocks is set it also draws the shocks of plain runs
+        final PathKernel kernel;
+        final boolean kernelShocks;
+
+        public SimulationEngine() {
+            this(ForkJoinPool.commonPool(), new SimulationCache(SimulationCache.DEFAULT_MAX_BYTES));
+        }
+
+        public SimulationEngine(ForkJoinPool pool, SimulationCache cache) {
+            this.pool = pool;
+            this.cache = cache;
+            this.kernel = new ScalarPathKernel();
+            this.kernelShocks = false;
+        }
+
+        // Plain (VarianceReduction.NONE) runs draw Box-Muller shocks through the kernel, e.g.
+        // PathKernel.load(). Their values differ from the default engine's, but are the same for
+        // the vector and the scalar kernel up to rounding in log, sin and cos.
+        public SimulationEngine(ForkJoinPool pool, SimulationCache cache, PathKernel kernel) {
+            this.pool = pool;
+            this.cache = cache;
+            this.kernel = kernel;
+            this.kernelShocks = true;
+        }
+
+        public PathKernel getKernel() { return kernel; }
+
+        boolean usesKernelShocks(VarianceReduction varianceReduction) {
+            return kernelShocks && varianceReduction == VarianceReduction.NONE;
+        }
+
+        public SimulationCache getCache() { return cache; }
+
+        public SimulationResult simulateInvestment(double initialAmount, int periodInYears, Investment investment) {
+            return simulateInvestment(initialAmount, periodInYears, investment, RandomStreams.randomSeed());
+        }
+
+        // Three-scenario simulation; each scenario draws from its own stream of the seed
+        public SimulationResult simulateInvestment(double initialAmount, int periodInYears, Investment investment,
+                                                   long seed) {
+            RandomStreams streams = new RandomStreams(seed);
+            SplittableRandom optimisticRandom = streams.stream(0);
+            SplittableRandom moderateRandom = streams.stream(1);
+            SplittableRandom pessimisticRandom = streams.stream(2);
+
+            SimulationResult result = new SimulationResult(initialAmount, periodInYears, investment,
+                    QUARTER, periodInYears * 4 + 1);
+
+            double baseReturn = investment.getAnnualReturn();
+            double volatility = investment.getHistoricVolatility();
+
+            // Optimistic path: return 30% higher than average
+            double optimisticReturn = baseReturn * 1.3;
+
+            // Pessimistic path: return 30% lower than average
+            double pessimisticReturn = Math.max(baseReturn * 0.7, 0.01); // Not less than 1%
+
+            // Initial values
+            double optimisticValue = initialAmount;
+            double moderateValue = initialAmount;
+            double pessimisticValue = initialAmount;
+
+            double[] optimisticValues = result.getOptimisticValues();
+            double[] moderateValues = result.getModerateValues();
+            double[] pessimisticValues = result.getPessimisticValues();
+
+            // Add starting point
+            optimisticValues[0] = optimisticValue;
+            moderateValues[0] = moderateValue;
+            pessimisticValues[0] = pessimisticValue;
+
+            // Simulate investment progress over time, one step per quarter (4 points per year)
+            for (int step = 1; step <= periodInYears * 4; step++) {
+                // Calculate investment value for each scenario with random volatility
+                optimisticValue *= (1 + (optimisticReturn / 4) + (optimisticRandom.nextGaussian() * volatility / 8));
+                moderateValue *= (1 + (baseReturn / 4) + (moderateRandom.nextGaussian() * volatility / 8));
+                pessimisticValue *= (1 + (pessimisticReturn / 4) + (pessimisticRandom.nextGaussian() * volatility / 8));
+
+                optimisticValues[step] = optimisticValue;
+                moderateValues[step] = moderateValue;
+                pessimisticValues[step] = pessimisticValue;
+            }
+
+            // Store final values
+            result.setFinalValueOptimistic(optimisticValue);
+            result.setFinalValueModerate(moderateValue);
+            result.setFinalValuePessimistic(pessimisticValue);
+
+            return result;
+        }
+
+        // Percentile bands for one investment, simulated only when the options need paths.
+        // Simulated runs always carry risk metrics; analytic ones get them streamed on request.
+        public SimulationResult simulateBands(double initialAmount, int periodInYears, Investment investment,
+                                              SimulationOptions options) {
+            if (!options.requiresPaths()) {
+                SimulationResult result = simulateAnalytic(initialAmount, periodInYears, investment);
+                if (options.isRiskMetricsRequested()) {
+                    result.setRiskMetrics(simulateRiskMetrics(initialAmount, periodInYears, investment,
+                            options.getPathCount(), options.getSeed(), options.getVarianceReduction()));
+                }
+                return result;
+            }
+            if (options.isAdaptive()) {
+                return simulateAdaptive(initialAmount, periodInYears, investment, options);
+            }
+            return simulateMonteCarlo(initialAmount, periodInYears, investment, options.getPathCount(),
+                    options.getSeed(), options.getVarianceReduction());
+        }
+
+        // Simulates each instrument once, for a unit amount over the grid's longest horizon.
+        // A path's first 4 * y quarters are a y-year path, so shorter horizons read the bands
+        // at quarter 4 * y of the same run, and amounts are a multiplication on read.
+        public ScenarioGridResult simulateGrid(ScenarioGrid grid, SimulationOptions options) {
+            ScenarioGridResult gridResult = new ScenarioGridResult(grid, PERCENTILE_LEVELS.clone());
+            int maxYears = grid.getMaxYears();
+            List<Investment> investments = grid.getInvestments();
+
+            for (int i = 0; i < investments.size(); i++) {
+                SimulationResult unit = simulateBands(1.0, maxYears, investments.get(i), options);
+                for (int y = 0; y < grid.getYears().length; y++) {
+                    int step = grid.getYears()[y] * 4;
+                    for (int l = 0; l < PERCENTILE_LEVELS.length; l++) {
+                        gridResult.setUnitValue(i, y, l, unit.getPercentileBand(PERCENTILE_LEVELS[l])[step]);
+                    }
+                }
+            }
+            return gridResult;
+        }
+
+        // Analytic mode: treats each quarter's growth factor 1 + r/4 + z * vol/8 as the
+        // lognormal exp(mu + sigma * z) with the same mean, sigma = (vol/8) / (1 + r/4).
+        // The value after k quarters is then lognormal and every percentile has a closed
+        // form, so the bands cost O(steps) and need no random numbers.
+        public SimulationResult simulateAnalytic(double initialAmount, int periodInYears, Investment investment) {
+            int steps = periodInYears * 4;
+            double drift = investment.getAnnualReturn() / 4;
+            double sigma = investment.getHistoricVolatility() / 8 / (1 + drift);
+            double mu = Math.log(1 + drift) - sigma * sigma / 2;
+
+            double[] quantiles = new double[PERCENTILE_LEVELS.length];
+            for (int i = 0; i < quantiles.length; i++) {
+                quantiles[i] = inverseNormal(PERCENTILE_LEVELS[i] / 100.0);
+            }
+
+            double[][] bands = new double[PERCENTILE_LEVELS.length][steps + 1];
+            for (int step = 0; step <= steps; step++) {
+                double logMean = step * mu;
+                double logStdDev = sigma * Math.sqrt(step);
+                for (int i = 0; i < quantiles.length; i++) {
+                    bands[i][step] = initialAmount * Math.exp(logMean + quantiles[i] * logStdDev);
+                }
+            }
+
+            SimulationResult result = bandsResult(bands, 0, initialAmount, periodInYears, investment);
+            result.setMeanEstimate(VarianceReduction.NONE, initialAmount * Math.pow(1 + drift, steps), 0);
+            return result;
+        }
+
+        // Monte Carlo mode: simulate pathCount independent paths in parallel and report
+        // the P5/P25/P50/P75/P95 value of every quarter. P95, P50 and P5 are also
+        // exposed as the optimistic, moderate and pessimistic scenarios.
+        public SimulationResult simulateMonteCarlo(double initialAmount, int periodInYears, Investment investment,
+                                                   int pathCount, long seed) {
+            return simulateMonteCarlo(initialAmount, periodInYears, investment, pathCount, seed, VarianceReduction.NONE);
+        }
+
+        public SimulationResult simulateMonteCarlo(double initialAmount, int periodInYears, Investment investment,
+                                                   int pathCount, long seed, VarianceReduction varianceReduction) {
+            MonteCarloRun run = startMonteCarlo(initialAmount, periodInYears, investment, pathCount, seed,
+                    varianceReduction);
+            run.runBatch(pathCount);
+            return run.snapshot();
+        }
+
+        // Adds batches of paths until the 95% confidence intervals of P5 and P95 of the final
+        // value are within the target precision, the time budget is used up, or the options'
+        // path count is reached. Batches double the paths simulated so far, so checking the
+        // intervals costs O(paths) overall; near the deadline a batch is cut to the time left
+        // at the rate measured so far.
+        public SimulationResult simulateAdaptive(double initialAmount, int periodInYears, Investment investment,
+                                                 SimulationOptions options) {
+            // No lambda here: its class would be a nestmate and load the Swing frame as the nest host
+            return simulateAdaptive(initialAmount, periodInYears, investment, options, null);
+        }
+
+        // afterBatch, if not null, sees the run after every batch and returns false to stop it,
+        // e.g. when the caller was cancelled; the result then has no stop reason
+        public SimulationResult simulateAdaptive(double initialAmount, int periodInYears, Investment investment,
+                                                 SimulationOptions options, Predicate<MonteCarloRun> afterBatch) {
+            long start = System.nanoTime();
+            long budgetNanos = options.getTimeBudgetMillis() * 1_000_000L;
+            MonteCarloRun run = startMonteCarlo(initialAmount, periodInYears, investment, options.getPathCount(),
+                    options.getSeed(), options.getVarianceReduction());
+
+            StopReason reason;
+            double precision;
+            int batchSize = Math.min(ADAPTIVE_FIRST_BATCH, run.getPathCount());
+            while (true) {
+                run.runBatch(batchSize);
+                precision = run.precision();
+                long elapsed = System.nanoTime() - start;
+                if (afterBatch != null && !afterBatch.test(run)) {
+                    reason = null;
+                    break;
+                }
+                if (options.getTargetPrecision() > 0 && precision <= options.getTargetPrecision()) {
+                    reason = StopReason.PRECISION_REACHED;
+                    break;
+                }
+                if (run.isComplete()) {
+                    reason = StopReason.PATH_LIMIT;
+                    break;
+                }
+                if (budgetNanos > 0 && elapsed >= budgetNanos) {
+                    reason = StopReason.TIME_BUDGET;
+                    break;
+                }
+                batchSize = run.getCompletedPaths();
+                if (budgetNanos > 0) {
+                    double pathsPerNano = (double) run.getCompletedPaths() / Math.max(elapsed, 1);
+                    batchSize = (int) Math.max(PATHS_PER_TASK,
+                            Math.min(batchSize, pathsPerNano * (budgetNanos - elapsed)));
+                }
+            }
+
+            SimulationResult result = run.snapshot();
+            result.setStopReason(reason, precision);
+            return result;
+        }
+
+        // Prepares a Monte Carlo run whose paths are simulated batch by batch
+        public MonteCarloRun startMonteCarlo(double initialAmount, int periodInYears, Investment investment,
+                                             int pathCount, long seed) {
+            return startMonteCarlo(initialAmount, periodInYears, investment, pathCount, seed, VarianceReduction.NONE);
+        }
+
+        public MonteCarloRun startMonteCarlo(double initialAmount, int periodInYears, Investment investment,
+                                             int pathCount, long seed, VarianceReduction varianceReduction) {
+            if (pathCount <= 0) {
+                throw new IllegalArgumentException("Path count must be positive: " + pathCount);
+            }
+            return new MonteCarloRun(initialAmount, periodInYears, investment, pathCount, seed, varianceReduction);
+        }
+
+        // A Monte Carlo simulation that accumulates paths in batches, so callers can show
+        // intermediate percentiles and stop between batches
+        public class MonteCarloRun {
+            private final double initialAmount;
+            private final int periodInYears;
+            private final Investment investment;
+            private final int pathCount;
+            private final VarianceReduction varianceReduction;
+            private final SimulationCache.Key cacheKey;
+            private ShockSampler sampler;
+
+            // values[step][path] for a unit initial amount; each batch writes only its own
+            // path range. Stored as float, i.e. 4 bytes per path-step while the run is in progress.
+            // finalValues (and controlValues for the control variate) keep the final values in
+            // path order, since computing percentiles reorders the rows of values.
+            // The arrays grow with the batches, so a run that stops early never holds pathCount paths.
+            private float[][] values;
+            private double[] finalValues;
+            private double[] controlValues;
+            private RiskAccumulator risk;
+            private int completedPaths;
+            private SimulationResult unitResult;
+
+            MonteCarloRun(double initialAmount, int periodInYears, Investment investment,
+                                  int pathCount, long seed, VarianceReduction varianceReduction) {
+                this.initialAmount = initialAmount;
+                this.periodInYears = periodInYears;
+                this.investment = investment;
+                this.pathCount = pathCount;
+                this.varianceReduction = varianceReduction;
+                this.cacheKey = new SimulationCache.Key(investment, periodInYears, pathCount, seed, varianceReduction,
+                        usesKernelShocks(varianceReduction));
+
+                // Identical runs only differ by the initial amount, so a cached unit result is enough
+                this.unitResult = cache.get(cacheKey);
+                if (unitResult != null) {
+                    completedPaths = pathCount;
+                } else {
+                    int steps = periodInYears * 4;
+                    sampler = new ShockSampler(varianceReduction, new RandomStreams(seed), steps);
+                    values = new float[steps + 1][0];
+                    risk = new RiskAccumulator(steps);
+                    finalValues = new double[0];
+                    if (varianceReduction == VarianceReduction.CONTROL_VARIATE) {
+                        controlValues = new double[0];
+                    }
+                }
+            }
+
+            public int getPathCount() { return pathCount; }
+            public int getCompletedPaths() { return completedPaths; }
+            public boolean isComplete() { return completedPaths == pathCount; }
+
+            // Simulates up to batchSize more paths in parallel; returns how many were added
+            public int runBatch(int batchSize) {
+                int from = completedPaths;
+                int to = Math.min(pathCount, from + batchSize);
+                if (from == to) return 0;
+                ensureCapacity(to);
+
+                PathTask task = new PathTask(values, finalValues, controlValues, values.length - 1, from, to, 1.0,
+                        investment.getAnnualReturn() / 4, investment.getHistoricVolatility() / 8, sampler,
+                        kernel, usesKernelShocks(varianceReduction));
+                pool.invoke(task);
+                risk.merge(task.getRisk());
+                completedPaths = to;
+                unitResult = null;
+                return to - from;
+            }
+
+            private void ensureCapacity(int paths) {
+                if (finalValues.length >= paths) return;
+                // Doubling keeps the copying linear in the final path count
+                int capacity = (int) Math.min(pathCount, Math.max(paths, 2L * finalValues.length));
+                for (int step = 0; step < values.length; step++) {
+                    values[step] = Arrays.copyOf(values[step], capacity);
+                }
+                finalValues = Arrays.copyOf(finalValues, capacity);
+                if (controlValues != null) {
+                    controlValues = Arrays.copyOf(controlValues, capacity);
+                }
+            }
+
+            // Half-width of a distribution-free 95% confidence interval for a percentile of the
+            // final value, relative to the percentile itself. The interval runs between the order
+            // statistics at n*q -/+ z*sqrt(n*q*(1-q)). Paths are treated as independent, which
+            // overstates the width for antithetic and Sobol runs.
+            double relativeHalfWidth(double level) {
+                int n = completedPaths;
+                if (n < 2) return Double.POSITIVE_INFINITY;
+                // Served from the cache or already released: no paths are kept
+                if (finalValues == null) return Double.NaN;
+                double q = level / 100.0;
+                double spread = CONFIDENCE_Z * Math.sqrt(n * q * (1 - q));
+                int lower = (int) Math.max(0, Math.floor(n * q - spread));
+                int upper = (int) Math.min(n - 1, Math.ceil(n * q + spread));
+                int middle = (int) Math.min(n - 1, Math.round(q * (n - 1)));
+
+                float[] sample = new float[n];
+                for (int i = 0; i < n; i++) {
+                    sample[i] = (float) finalValues[i];
+                }
+                double low = select(sample, 0, n, lower);
+                double estimate = select(sample, lower, n, middle);
+                double high = select(sample, middle, n, upper);
+                return (high - low) / 2 / estimate;
+            }
+
+            // The wider of the P5 and P95 relative half-widths. A run served from the cache
+            // reports the precision its paths reached when they were cached.
+            double precision() {
+                if (finalValues == null && unitResult != null) return unitResult.getAchievedPrecision();
+                return Math.max(relativeHalfWidth(5), relativeHalfWidth(95));
+            }
+
+            // Percentile bands over the paths completed so far
+            public SimulationResult snapshot() {
+                if (completedPaths == 0) {
+                    throw new IllegalStateException("No paths have been simulated yet");
+                }
+                if (unitResult == null) {
+                    double[] estimate = meanEstimate();
+                    unitResult = percentileResult(values, completedPaths, 1.0, periodInYears, investment);
+                    unitResult.setMeanEstimate(varianceReduction, estimate[0], estimate[1]);
+                    unitResult.setRiskMetrics(risk.toMetrics(1.0));
+                    if (isComplete()) {
+                        // Kept with the cached result, since the paths are released below
+                        unitResult.setAchievedPrecision(precision());
+                        cache.put(cacheKey, unitResult);
+                        values = null;
+                        finalValues = null;
+                        controlValues = null;
+                        sampler = null;
+                        risk = null;
+                    }
+                }
+                return unitResult.scaledTo(investment, initialAmount);
+            }
+
+            // {mean final value, standard error of that mean} over the completed paths,
+            // using the estimator that matches the variance-reduction technique
+            double[] meanEstimate() {
+                int n = completedPaths;
+                switch (varianceReduction) {
+                    case ANTITHETIC: {
+                        // Paths 2k and 2k + 1 mirror each other; their averages are independent
+                        int pairs = n / 2;
+                        if (pairs < 2) break;
+                        double[] pairMeans = new double[pairs];
+                        for (int k = 0; k < pairs; k++) {
+                            pairMeans[k] = (finalValues[2 * k] + finalValues[2 * k + 1]) / 2;
+                        }
+                        return meanAndStandardError(pairMeans, pairs);
+                    }
+                    case CONTROL_VARIATE: {
+                        // Subtract the lognormal twin's deviation from its exactly known mean
+                        double expected = Math.pow(1 + investment.getAnnualReturn() / 4, values.length - 1);
+                        double[] control = meanAndStandardError(controlValues, n);
+                        double[] plain = meanAndStandardError(finalValues, n);
+                        double covariance = 0, variance = 0;
+                        for (int i = 0; i < n; i++) {
+                            covariance += (finalValues[i] - plain[0]) * (controlValues[i] - control[0]);
+                            variance += (controlValues[i] - control[0]) * (controlValues[i] - control[0]);
+                        }
+                        double beta = variance > 0 ? covariance / variance : 0;
+                        double[] adjusted = new double[n];
+                        for (int i = 0; i < n; i++) {
+                            adjusted[i] = finalValues[i] - beta * (controlValues[i] - expected);
+                        }
+                        return meanAndStandardError(adjusted, n);
+                    }
+                    case SOBOL: {
+                        // Replicates use independent random digital shifts of the same points
+                        int replicates = Math.min(SOBOL_REPLICATES, n);
+                        if (replicates < 2) break;
+                        double[] sums = new double[replicates];
+                        int[] counts = new int[replicates];
+                        for (int i = 0; i < n; i++) {
+                            sums[i % SOBOL_REPLICATES] += finalValues[i];
+                            counts[i % SOBOL_REPLICATES]++;
+                        }
+                        double[] replicateMeans = new double[replicates];
+                        for (int r = 0; r < replicates; r++) {
+                            replicateMeans[r] = sums[r] / counts[r];
+                        }
+                        return meanAndStandardError(replicateMeans, replicates);
+                    }
+                    default:
+                        break;
+                }
+                return meanAndStandardError(finalValues, n);
+            }
+        }
+
+        // {sample mean, standard error of the mean} of values[0, count)
+        static double[] meanAndStandardError(double[] values, int count) {
+            double mean = 0;
+            for (int i = 0; i < count; i++) {
+                mean += values[i];
+            }
+            mean /= count;
+            if (count < 2) return new double[] {mean, Double.NaN};
+
+            double squares = 0;
+            for (int i = 0; i < count; i++) {
+                squares += (values[i] - mean) * (values[i] - mean);
+            }
+            return new double[] {mean, Math.sqrt(squares / (count - 1) / count)};
+        }
+
+        // Risk figures only: paths are consumed as they are generated and never stored, so
+        // memory stays constant however many paths run
+        public RiskMetrics simulateRiskMetrics(double initialAmount, int periodInYears, Investment investment,
+                                               int pathCount, long seed, VarianceReduction varianceReduction) {
+            if (pathCount <= 0) {
+                throw new IllegalArgumentException("Path count must be positive: " + pathCount);
+            }
+            int steps = periodInYears * 4;
+            PathTask task = new PathTask(null, null, null, steps, 0, pathCount, 1.0,
+                    investment.getAnnualReturn() / 4, investment.getHistoricVolatility() / 8,
+                    new ShockSampler(varianceReduction, new RandomStreams(seed), steps),
+                    kernel, usesKernelShocks(varianceReduction));
+            pool.invoke(task);
+            return task.getRisk().toMetrics(1.0).scaledBy(initialAmount);
+        }
+
+        // Simulates a buy-and-hold portfolio: every quarter all assets move together with
+        // returns correlated through the portfolio's Cholesky factor. Reports percentile
+        // bands of the total portfolio value.
+        public SimulationResult simulatePortfolio(double initialAmount, int periodInYears, Portfolio portfolio,
+                                                  int pathCount, long seed) {
+            if (pathCount <= 0) {
+                throw new IllegalArgumentException("Path count must be positive: " + pathCount);
+            }
+            float[][] values = new float[periodInYears * 4 + 1][pathCount];
+            pool.invoke(new PortfolioTask(values, 0, pathCount, initialAmount, portfolio, new RandomStreams(seed)));
+
+            // Read before the percentiles reorder the last row
+            double[] finalValues = new double[pathCount];
+            for (int path = 0; path < pathCount; path++) {
+                finalValues[path] = values[values.length - 1][path];
+            }
+            double[] estimate = meanAndStandardError(finalValues, pathCount);
+
+            SimulationResult result = percentileResult(values, pathCount, initialAmount, periodInYears,
+                    portfolio.toInvestment());
+            result.setMeanEstimate(VarianceReduction.NONE, estimate[0], estimate[1]);
+            return result;
+        }
+
+        // Percentile bands over the first pathCount paths of values
+        SimulationResult percentileResult(float[][] values, int pathCount, double initialAmount,
+                                                  int periodInYears, Investment investment) {
+            int steps = values.length - 1;
+            double[][] bands = new double[PERCENTILE_LEVELS.length][steps + 1];
+            pool.invoke(new PercentileTask(values, pathCount, bands, 0, steps + 1));
+            return bandsResult(bands, pathCount, initialAmount, periodInYears, investment);
+        }
+
+        private SimulationResult bandsResult(double[][] bands, int pathCount, double initialAmount,
+                                             int periodInYears, Investment investment) {
+            int steps = bands[0].length - 1;
+            SimulationResult result = new SimulationResult(initialAmount, periodInYears, investment, QUARTER, 0);
+            result.setPercentileBands(pathCount, PERCENTILE_LEVELS.clone(), bands);
+
+            // The scenario series share the P95/P50/P5 band arrays
+            double[] optimistic = bands[4];
+            double[] moderate = bands[2];
+            double[] pessimistic = bands[0];
+            result.setScenarioValues(optimistic, moderate, pessimistic);
+
+            result.setFinalValueOptimistic(optimistic[steps]);
+            result.setFinalValueModerate(moderate[steps]);
+            result.setFinalValuePessimistic(pessimistic[steps]);
+            return result;
+        }
+
+        // Writes the linearly interpolated percentiles (ascending levels) of sample[0, n) into
+        // bands[i][step]. Reorders the sample with quickselect instead of sorting it.
+        static void percentiles(float[] sample, int n, double[] levels, double[][] bands, int step) {
+            int from = 0;
+            for (int i = 0; i < levels.length; i++) {
+                double rank = levels[i] / 100.0 * (n - 1);
+                int lower = (int) Math.floor(rank);
+                double value = select(sample, from, n, lower);
+                double fraction = rank - lower;
+                if (fraction > 0 && lower + 1 < n) {
+                    // Everything right of 'lower' is >= its value, so the next order statistic is their minimum
+                    float next = sample[lower + 1];
+                    for (int j = lower + 2; j < n; j++) {
+                        if (sample[j] < next) next = sample[j];
+                    }
+                    value += (next - value) * fraction;
+                }
+                bands[i][step] = value;
+                from = lower;
+            }
+        }
+
+        // Hoare quickselect: places the k-th smallest element of a[from, to) at index k
+        static float select(float[] a, int from, int to, int k) {
+            int lo = from, hi = to - 1;
+            while (lo < hi) {
+                float x = a[lo], y = a[(lo + hi) >>> 1], z = a[hi];
+                float pivot = Math.max(Math.min(x, y), Math.min(Math.max(x, y), z));
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (a[i] < pivot) i++;
+                    while (a[j] > pivot) j--;
+                    if (i <= j) {
+                        float tmp = a[i];
+                        a[i++] = a[j];
+                        a[j--] = tmp;
+                    }
+                }
+                if (k <= j) {
+                    hi = j;
+                } else if (k >= i) {
+                    lo = i;
+                } else {
+                    break;
+                }
+            }
+            return a[k];
+        }
+
+        // Produces the standard normal shocks of every path for a variance-reduction technique.
+        // Shocks depend only on the seed and the path index, never on the calling thread.
+        private static class ShockSampler {
+            private final VarianceReduction technique;
+            private final RandomStreams streams;
+            private final int steps;
+            private final SobolSequence sobol;
+            private final BrownianBridge bridge;
+            private final int[][] digitalShifts;
+
+            ShockSampler(VarianceReduction technique, RandomStreams streams, int steps) {
+                this.technique = technique;
+                this.streams = streams;
+                this.steps = steps;
+                if (technique == VarianceReduction.SOBOL) {
+                    sobol = new SobolSequence(steps);
+                    bridge = new BrownianBridge(steps);
+                    digitalShifts = new int[SOBOL_REPLICATES][steps];
+                    RandomStreams shiftStreams = streams.substreams(SOBOL_REPLICATES);
+                    for (int r = 0; r < SOBOL_REPLICATES; r++) {
+                        SplittableRandom shiftRandom = shiftStreams.stream(r);
+                        for (int d = 0; d < steps; d++) {
+                            digitalShifts[r][d] = shiftRandom.nextInt();
+                        }
+                    }
+                } else {
+                    sobol = null;
+                    bridge = null;
+                    digitalShifts = null;
+                }
+            }
+
+            // SplitMix64 state that starts the kernel-drawn shocks of a path
+            long streamSeed(int path) {
+                return streams.streamSeed(path);
+            }
+
+            // normals[k * stride + j] = shock of path firstPath + j in step k + 1, for j < block
+            void fill(int firstPath, int block, double[] normals, int stride) {
+                switch (technique) {
+                    case ANTITHETIC:
+                        // Paths 2k and 2k + 1 share stream k with opposite signs
+                        for (int j = 0; j < block; j++) {
+                            int path = firstPath + j;
+                            SplittableRandom random = streams.stream(path >>> 1);
+                            double sign = (path & 1) == 0 ? 1 : -1;
+                            for (int k = 0; k < steps; k++) {
+                                normals[k * stride + j] = sign * random.nextGaussian();
+                            }
+                        }
+                        break;
+                    case SOBOL: {
+                        // Path p is point p / R + 1 (point 0 is all zeros) of replicate p mod R
+                        int[] point = new int[steps];
+                        double[] gaussians = new double[steps];
+                        double[] scratch = new double[steps + 1];
+                        for (int j = 0; j < block; j++) {
+                            int path = firstPath + j;
+                            int[] shift = digitalShifts[path % SOBOL_REPLICATES];
+                            sobol.point(path / SOBOL_REPLICATES + 1, point);
+                            for (int d = 0; d < steps; d++) {
+                                double u = (((point[d] ^ shift[d]) & 0xFFFFFFFFL) + 0.5) / 4294967296.0;
+                                gaussians[d] = inverseNormal(u);
+                            }
+                            bridge.transform(gaussians, scratch, normals, j, stride);
+                        }
+                        break;
+                    }
+                    default:
+                        for (int j = 0; j < block; j++) {
+                            SplittableRandom random = streams.stream(firstPath + j);
+                            for (int k = 0; k < steps; k++) {
+                                normals[k * stride + j] = random.nextGaussian();
+                            }
+                        }
+                }
+            }
+        }
+
+        // Inverse of the standard normal CDF (Acklam's rational approximation,
+        // relative error below 1.2e-9)
+        static double inverseNormal(double p) {
+            final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                    1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+            final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                    6.680131188771972e+01, -1.328068155288572e+01};
+            final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                    -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+            final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                    3.754408661907416e+00};
+            final double low = 0.02425, high = 1 - low;
+
+            if (p < low) {
+                double q = Math.sqrt(-2 * Math.log(p));
+                return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                        / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+            }
+            if (p > high) {
+                double q = Math.sqrt(-2 * Math.log(1 - p));
+                return -(((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                        / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+            }
+            double q = p - 0.5;
+            double r = q * q;
+            return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+                    / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+        }
+
+        // Splits the path range in halves until it is small enough to simulate directly.
+        // Shocks come from the sampler by global path index, so the output depends only on
+        // the seed and not on the number of threads or how the paths were batched.
+        // Simulates paths [from, to) starting from initialAmount. values and finalValues may be
+        // null when only the streaming risk figures are wanted; each leaf feeds its own
+        // RiskAccumulator and parents merge their children's, left before right.
+        private static class PathTask extends RecursiveAction {
+            private final float[][] values;
+            private final double[] finalValues, controlValues;
+            private final int steps, from, to;
+            private final double initialAmount, drift, shock;
+            private final ShockSampler sampler;
+            private final PathKernel kernel;
+            private final boolean kernelShocks;
+            private RiskAccumulator risk;
+
+            PathTask(float[][] values, double[] finalValues, double[] controlValues, int steps, int from, int to,
+                     double initialAmount, double drift, double shock, ShockSampler sampler,
+                     PathKernel kernel, boolean kernelShocks) {
+                this.values = values;
+                this.finalValues = finalValues;
+                this.controlValues = controlValues;
+                this.steps = steps;
+                this.from = from;
+                this.to = to;
+                this.initialAmount = initialAmount;
+                this.drift = drift;
+                this.shock = shock;
+                this.sampler = sampler;
+                this.kernel = kernel;
+                this.kernelShocks = kernelShocks;
+            }
+
+            RiskAccumulator getRisk() { return risk; }
+
+            @Override
+            protected void compute() {
+                if (to - from <= PATHS_PER_TASK) {
+                    risk = new RiskAccumulator(steps);
+                    simulatePaths();
+                    return;
+                }
+                int mid = (from + to) >>> 1;
+                PathTask left = new PathTask(values, finalValues, controlValues, steps, from, mid, initialAmount,
+                        drift, shock, sampler, kernel, kernelShocks);
+                PathTask right = new PathTask(values, finalValues, controlValues, steps, mid, to, initialAmount,
+                        drift, shock, sampler, kernel, kernelShocks);
+                invokeAll(left, right);
+                risk = left.risk;
+                risk.merge(right.risk);
+            }
+
+            // Draws the shocks of PATH_BLOCK paths, then lets the kernel step the block one
+            // quarter at a time, tracking each path's drawdowns
+            private void simulatePaths() {
+                double[] normals = new double[steps * PATH_BLOCK];
+                double[] current = new double[PATH_BLOCK];
+                double[] peak = new double[PATH_BLOCK];
+                double[] maxDrawdown = new double[PATH_BLOCK];
+                double[] troughStep = new double[PATH_BLOCK];
+                double[] recoveryQuarters = new double[PATH_BLOCK];
+                long[] states = kernelShocks ? new long[PATH_BLOCK] : null;
+                double growth = 1 + drift;
+
+                for (int blockStart = from; blockStart < to; blockStart += PATH_BLOCK) {
+                    int block = Math.min(PATH_BLOCK, to - blockStart);
+                    if (kernelShocks) {
+                        for (int j = 0; j < block; j++) {
+                            states[j] = sampler.streamSeed(blockStart + j);
+                        }
+                        kernel.fillNormals(states, 0, block, normals, PATH_BLOCK, steps);
+                    } else {
+                        sampler.fill(blockStart, block, normals, PATH_BLOCK);
+                    }
+                    Arrays.fill(current, 0, block, initialAmount);
+                    Arrays.fill(peak, 0, block, initialAmount);
+                    Arrays.fill(maxDrawdown, 0, block, 0);
+                    Arrays.fill(recoveryQuarters, 0, block, -1);
+                    if (values != null) {
+                        Arrays.fill(values[0], blockStart, blockStart + block, (float) initialAmount);
+                    }
+
+                    for (int step = 1; step <= steps; step++) {
+                        kernel.step(current, peak, maxDrawdown, troughStep, recoveryQuarters, normals,
+                                (step - 1) * PATH_BLOCK, 0, block, growth, shock, step);
+                        if (values != null) {
+                            float[] row = values[step];
+                            for (int j = 0; j < block; j++) {
+                                row[blockStart + j] = (float) current[j];
+                            }
+                        }
+                    }
+                    for (int j = 0; j < block; j++) {
+                        risk.add(current[j] / initialAmount, maxDrawdown[j], (int) recoveryQuarters[j]);
+                    }
+                    if (finalValues != null) {
+                        System.arraycopy(current, 0, finalValues, blockStart, block);
+                    }
+
+                    if (controlValues != null) {
+                        // Lognormal twin driven by the same shocks: each quarter it grows by
+                        // exp(mu + sigma * z), whose mean is exactly 1 + drift
+                        double sigma = shock / (1 + drift);
+                        double mu = Math.log(1 + drift) - sigma * sigma / 2;
+                        for (int j = 0; j < block; j++) {
+                            double shockSum = 0;
+                            for (int step = 0; step < steps; step++) {
+                                shockSum += normals[step * PATH_BLOCK + j];
+                            }
+                            controlValues[blockStart + j] = initialAmount * Math.exp(steps * mu + sigma * shockSum);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Portfolio counterpart of PathTask. Leaves step PATH_BLOCK paths at a time so
+        // the correlation kernel works on contiguous per-asset rows; all buffers are
+        // allocated once per leaf and reused for every quarter.
+        private static class PortfolioTask extends RecursiveAction {
+            private final float[][] values;
+            private final int from, to;
+            private final double initialAmount;
+            private final Portfolio portfolio;
+            private final RandomStreams streams;
+
+            PortfolioTask(float[][] values, int from, int to, double initialAmount,
+                          Portfolio portfolio, RandomStreams streams) {
+                this.values = values;
+                this.from = from;
+                this.to = to;
+                this.initialAmount = initialAmount;
+                this.portfolio = portfolio;
+                this.streams = streams;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= PATHS_PER_TASK) {
+                    simulatePaths();
+                    return;
+                }
+                int mid = (from + to) >>> 1;
+                invokeAll(new PortfolioTask(values, from, mid, initialAmount, portfolio, streams),
+                        new PortfolioTask(values, mid, to, initialAmount, portfolio, streams));
+            }
+
+            private void simulatePaths() {
+                int n = portfolio.size();
+                double[] drift = new double[n];
+                double[] shock = new double[n];
+                for (int i = 0; i < n; i++) {
+                    Investment investment = portfolio.getInvestments().get(i);
+                    drift[i] = investment.getAnnualReturn() / 4;
+                    shock[i] = investment.getHistoricVolatility() / 8;
+                }
+
+                double[] assets = new double[n * PATH_BLOCK];
+                double[] z = new double[n * PATH_BLOCK];
+                double[] correlated = new double[n * PATH_BLOCK];
+                double[] total = new double[PATH_BLOCK];
+                SplittableRandom[] randoms = new SplittableRandom[PATH_BLOCK];
+
+                for (int blockStart = from; blockStart < to; blockStart += PATH_BLOCK) {
+                    int block = Math.min(PATH_BLOCK, to - blockStart);
+                    for (int i = 0; i < n; i++) {
+                        Arrays.fill(assets, i * block, (i + 1) * block, initialAmount * portfolio.getWeight(i));
+                    }
+                    Arrays.fill(values[0], blockStart, blockStart + block, (float) initialAmount);
+                    for (int p = 0; p < block; p++) {
+                        randoms[p] = streams.stream(blockStart + p);
+                    }
+
+                    for (int step = 1; step < values.length; step++) {
+                        for (int i = 0; i < n; i++) {
+                            int offset = i * block;
+                            for (int p = 0; p < block; p++) {
+                                z[offset + p] = randoms[p].nextGaussian();
+                            }
+                        }
+                        portfolio.correlate(z, correlated, block);
+
+                        Arrays.fill(total, 0, block, 0);
+                        for (int i = 0; i < n; i++) {
+                            int offset = i * block;
+                            for (int p = 0; p < block; p++) {
+                                assets[offset + p] *= (1 + drift[i] + correlated[offset + p] * shock[i]);
+                                total[p] += assets[offset + p];
+                            }
+                        }
+
+                        float[] row = values[step];
+                        for (int p = 0; p < block; p++) {
+                            row[blockStart + p] = (float) total[p];
+                        }
+                    }
+                }
+            }
+        }
+
+        // Computes the percentiles of each quarter's path values (reordering them in place)
+        private static class PercentileTask extends RecursiveAction {
+            private final float[][] values;
+            private final int pathCount;
+            private final double[][] bands;
+            private final int from, to;
+
+            PercentileTask(float[][] values, int pathCount, double[][] bands, int from, int to) {
+                this.values = values;
+                this.pathCount = pathCount;
+                this.bands = bands;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= 1) {
+                    for (int step = from; step < to; step++) {
+                        percentiles(values[step], pathCount, PERCENTILE_LEVELS, bands, step);
+                    }
+                    return;
+                }
+                int mid = (from + to) >>> 1;
+                invokeAll(new PercentileTask(values, pathCount, bands, from, mid),
+                        new PercentileTask(values, pathCount, bands, mid, to));
+            }
+        }
+    }
+
+    // Drawing operations the chart needs, so the same chart code paints the panel, a
+    // BufferedImage in headless mode, or a streamed SVG document
+    interface ChartCanvas {
+        void setColor(Color color);
+        void setStrokeWidth(float width);
+        void setFont(Font font);
+        void drawLine(int x1, int y1, int x2, int y2);
+        void drawPolyline(int[] xPoints, int[] yPoints, int numPoints);
+        void fillCircle(double centerX, double centerY, double radius);
+        void fillRect(int x, int y, int width, int height);
+        void fill(Path2D path);
+        void drawString(String text, int x, int y);
+        // Text rotated clockwise by 'angle' radians around (x, y)
+        void drawRotatedString(String text, int x, int y, double angle);
+    }
+
+    static class Graphics2DCanvas implements ChartCanvas {
+        private final Graphics2D g2;
+        private final Ellipse2D.Double circle = new Ellipse2D.Double();
+        private float strokeWidth = -1;
+        private Font font;
+        private Font rotatedFont;
+        private double rotatedAngle = Double.NaN;
+
+        Graphics2DCanvas(Graphics2D g2) {
+            this.g2 = g2;
+            this.font = g2.getFont();
+        }
+
+        public void setColor(Color color) {
+            g2.setColor(color);
+        }
+
+        public void setStrokeWidth(float width) {
+            if (width == strokeWidth) return;
+            strokeWidth = width;
+            g2.setStroke(width == 2f ? ChartRenderer.LINE_STROKE : new BasicStroke(width));
+        }
+
+        public void setFont(Font font) {
+            if (!font.equals(this.font)) {
+                rotatedFont = null;
+            }
+            this.font = font;
+            g2.setFont(font);
+        }
+
+        public void drawLine(int x1, int y1, int x2, int y2) {
+            g2.drawLine(x1, y1, x2, y2);
+        }
+
+        public void drawPolyline(int[] xPoints, int[] yPoints, int numPoints) {
+            g2.drawPolyline(xPoints, yPoints, numPoints);
+        }
+
+        public void fillCircle(double centerX, double centerY, double radius) {
+            circle.setFrame(centerX - radius, centerY - radius, 2 * radius, 2 * radius);
+            g2.fill(circle);
+        }
+
+        public void fillRect(int x, int y, int width, int height) {
+            g2.fillRect(x, y, width, height);
+        }
+
+        public void fill(Path2D path) {
+            g2.fill(path);
+        }
+
+        public void drawString(String text, int x, int y) {
+            g2.drawString(text, x, y);
+        }
+
+        public void drawRotatedString(String text, int x, int y, double angle) {
+            // Deriving a rotated font is expensive, so it is kept while font and angle stay the same
+            if (rotatedFont == null || angle != rotatedAngle) {
+                rotatedFont = font.deriveFont(AffineTransform.getRotateInstance(angle));
+                rotatedAngle = angle;
+            }
+            g2.setFont(rotatedFont);
+            g2.drawString(text, x, y);
+            g2.setFont(font);
+        }
+    }
+
+    // Streams an SVG document to a Writer as the chart is drawn; nothing is kept in memory
+    // beyond the element being written. Call finish() once the chart is complete.
+    static class SvgCanvas implements ChartCanvas {
+        private final Writer out;
+        private final StringBuilder element = new StringBuilder(256);
+        private String fill = "#000000";
+        private String opacity = "";
+        private float strokeWidth = 1f;
+        private Font font;
+
+        SvgCanvas(Writer out, int width, int height, Font font) {
+            this.out = out;
+            this.font = font;
+            element.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                    .append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(width)
+                    .append("\" height=\"").append(height).append("\" viewBox=\"0 0 ").append(width)
+                    .append(' ').append(height).append("\">\n");
+            flushElement();
+        }
+
+        public void finish() throws IOException {
+            out.write("</svg>\n");
+            out.flush();
+        }
+
+        public void setColor(Color color) {
+            fill = String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
+            opacity = color.getAlpha() == 255 ? "" : String.format(Locale.ROOT, "%.3f", color.getAlpha() / 255.0);
+        }
+
+        public void setStrokeWidth(float width) {
+            strokeWidth = width;
+        }
+
+        public void setFont(Font font) {
+            this.font = font;
+        }
+
+        public void drawLine(int x1, int y1, int x2, int y2) {
+            element.append("<line x1=\"").append(x1).append("\" y1=\"").append(y1)
+                    .append("\" x2=\"").append(x2).append("\" y2=\"").append(y2).append('"');
+            appendStroke();
+            write();
+        }
+
+        public void drawPolyline(int[] xPoints, int[] yPoints, int numPoints) {
+            element.append("<polyline fill=\"none\" points=\"");
+            for (int i = 0; i < numPoints; i++) {
+                if (i > 0) element.append(' ');
+                element.append(xPoints[i]).append(',').append(yPoints[i]);
+                // Long series are written in pieces instead of one huge string
+                if (element.length() > 8192) {
+                    flushElement();
+                }
+            }
+            element.append('"');
+            appendStroke();
+            write();
+        }
+
+        public void fillCircle(double centerX, double centerY, double radius) {
+            element.append("<circle cx=\"");
+            appendNumber(centerX).append("\" cy=\"");
+            appendNumber(centerY).append("\" r=\"");
+            appendNumber(radius).append('"');
+            appendFill();
+            write();
+        }
+
+        public void fillRect(int x, int y, int width, int height) {
+            element.append("<rect x=\"").append(x).append("\" y=\"").append(y)
+                    .append("\" width=\"").append(width).append("\" height=\"").append(height).append('"');
+            appendFill();
+            write();
+        }
+
+        public void fill(Path2D path) {
+            element.append("<path d=\"");
+            double[] coords = new double[6];
+            for (PathIterator it = path.getPathIterator(null); !it.isDone(); it.next()) {
+                switch (it.currentSegment(coords)) {
+                    case PathIterator.SEG_MOVETO:
+                        element.append('M');
+                        appendNumber(coords[0]).append(',');
+                        appendNumber(coords[1]);
+                        break;
+                    case PathIterator.SEG_LINETO:
+                        element.append('L');
+                        appendNumber(coords[0]).append(',');
+                        appendNumber(coords[1]);
+                        break;
+                    case PathIterator.SEG_CLOSE:
+                        element.append('Z');
+                        break;
+                    default:
+                        // The chart only builds polygons
+                        throw new IllegalArgumentException("Unsupported path segment");
+                }
+                if (element.length() > 8192) {
+                    flushElement();
+                }
+            }
+            element.append('"');
+            appendFill();
+            write();
+        }
+
+        public void drawString(String text, int x, int y) {
+            element.append("<text x=\"").append(x).append("\" y=\"").append(y).append('"');
+            appendText(text);
+        }
+
+        public void drawRotatedString(String text, int x, int y, double angle) {
+            element.append("<text x=\"").append(x).append("\" y=\"").append(y)
+                    .append("\" transform=\"rotate(");
+            appendNumber(Math.toDegrees(angle)).append(' ').append(x).append(' ').append(y).append(")\"");
+            appendText(text);
+        }
+
+        private void appendText(String text) {
+            element.append(" font-family=\"");
+            appendEscaped(font.getFamily());
+            element.append("\" font-size=\"").append(font.getSize());
+            if (font.isBold()) {
+                element.append("\" font-weight=\"bold");
+            }
+            element.append('"');
+            appendFill();
+            element.append('>');
+            appendEscaped(text);
+            element.append("</text>\n");
+            flushElement();
+        }
+
+        // XML escaping for both text content and quoted attribute values
+        private void appendEscaped(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '&': element.append("&amp;"); break;
+                    case '<': element.append("&lt;"); break;
+                    case '>': element.append("&gt;"); break;
+                    case '"': element.append("&quot;"); break;
+                    default: element.append(c);
+                }
+            }
+        }
+
+        private void appendStroke() {
+            element.append(" stroke=\"").append(fill).append("\" stroke-width=\"");
+            appendNumber(strokeWidth).append('"');
+            if (!opacity.isEmpty()) {
+                element.append(" stroke-opacity=\"").append(opacity).append('"');
+            }
+        }
+
+        private void appendFill() {
+            element.append(" fill=\"").append(fill).append('"');
+            if (!opacity.isEmpty()) {
+                element.append(" fill-opacity=\"").append(opacity).append('"');
+            }
+        }
+
+        // One decimal is below what any viewer resolves
+        private StringBuilder appendNumber(double value) {
+            long tenths = Math.round(value * 10);
+            if (tenths < 0) {
+                element.append('-');
+                tenths = -tenths;
+            }
+            element.append(tenths / 10);
+            if (tenths % 10 != 0) {
+                element.append('.').append(tenths % 10);
+            }
+            return element;
+        }
+
+        // Closes the current empty element and writes it out
+        private void write() {
+            element.append("/>\n");
+            flushElement();
+        }
+
+        private void flushElement() {
+            try {
+                out.append(element);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            element.setLength(0);
+        }
+    }
+
+    // Lays out and draws a simulation chart: value and date axes, the optimistic, moderate and
+    // pessimistic lines or the percentile fan, and the legend. It has no Swing dependency, so
+    // the panel, headless PNG export and SVG export all share it. Not thread-safe; batch
+    // exports use one renderer per thread.
+    static class ChartRenderer {
+        static final Color OPTIMISTIC_COLOR = new Color(46, 139, 87);  // SeaGreen
+        static final Color MODERATE_COLOR = new Color(25, 25, 112);    // MidnightBlue
+        static final Color PESSIMISTIC_COLOR = new Color(178, 34, 34); // Firebrick
+        static final int PADDING = 50;
+        // Size of exported charts
+        static final int EXPORT_WIDTH = 900, EXPORT_HEIGHT = 560;
+        // Markers are drawn only when consecutive points are at least this many pixels apart
+        private static final int MIN_MARKER_SPACING = 8;
+
+        // Drawing resources, created once instead of on every paint
+        static final BasicStroke LINE_STROKE = new BasicStroke(2f);
+        static final Font DEFAULT_FONT = new Font(Font.DIALOG, Font.PLAIN, 12);
+        private static final Font LEGEND_FONT = new Font("SansSerif", Font.BOLD, 12);
+        static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("MMM yyyy");
+        private final DecimalFormat valueFormatter = new DecimalFormat("$#,###");
+
+        // Fan chart: shaded P5-P95 and P25-P75 bands around the median line, traced from the
+        // percentile arrays into reused Path2D polygons, so drawing allocates nothing per point
+        private static final Color OUTER_BAND_COLOR = new Color(25, 25, 112, 40);
+        private static final Color INNER_BAND_COLOR = new Color(25, 25, 112, 90);
+        private final Path2D.Double outerBand = new Path2D.Double();
+        private final Path2D.Double innerBand = new Path2D.Double();
+
+        private SimulationResult result;
+        private boolean fanChart = true;
+        private int width, height;
+        private Font font = DEFAULT_FONT;
+
+        // Screen coordinates of the optimistic, moderate and pessimistic series, downsampled to
+        // about one point per pixel column. Recomputed only when the result or the size changes.
+        private boolean projected;
+        private double maxValue;
+        private int[][] seriesX, seriesY;
+        // Step index and x position of every point kept for the median, ascending in x
+        private int[] medianSteps, medianX;
+
+        void setResult(SimulationResult result) {
+            this.result = result;
+            projected = false;
+        }
+
+        SimulationResult getResult() { return result; }
 
-            // Sample investment data
-            String[] insertStatements = {
-                    "INSERT INTO investments (name, symbol, type, current_price, historic_volatility, annual_return) " +
-                            "VALUES ('Apple Inc.', 'AAPL', 'STOCK', 170.50, 0.25, 0.15)",
+        void setFanChart(boolean fanChart) {
+            if (this.fanChart == fanChart) return;
+            this.fanChart = fanChart;
+            projected = false;
+        }
 
-                    "INSERT INTO investments (name, symbol, type, current_price, historic_volatility, annual_return) " +
-                            "VALUES ('S&P 500 ETF', 'SPY', 'ETF', 420.00, 0.16, 0.10)",
+        boolean isFanChart() { return fanChart; }
 
-                    "INSERT INTO investments (name, symbol, type, current_price, historic_volatility, annual_return) " +
-                            "VALUES ('10-Year Treasury Bond', 'BOND10', 'BOND', 95.00, 0.05, 0.035)",
+        void setSize(int width, int height) {
+            if (this.width == width && this.height == height) return;
+            this.width = width;
+            this.height = height;
+            projected = false;
+        }
 
-                    "INSERT INTO investments (name, symbol, type, current_price, historic_volatility, annual_return) " +
-                            "VALUES ('Bitcoin', 'BTC', 'CRYPTO', 36000.00, 0.75, 0.30)",
+        void setFont(Font font) {
+            this.font = font;
+        }
 
-                    "INSERT INTO investments (name, symbol, type, current_price, historic_volatility, annual_return) " +
-                            "VALUES ('Real Estate Fund', 'REIT', 'FUND', 210.75, 0.18, 0.08)"
-            };
+        double getMaxValue() { return maxValue; }
 
-            for (String sql : insertStatements) {
-                stmt.execute(sql);
+        int[] getMedianSteps() { return medianSteps; }
+
+        int[] getMedianX() { return medianX; }
+
+        // Bands are shown only for results that have them
+        boolean showsBands() {
+            return fanChart && result != null && result.hasPercentileBands();
+        }
+
+        // Whole chart on a white background
+        void draw(ChartCanvas canvas) {
+            canvas.setColor(Color.WHITE);
+            canvas.fillRect(0, 0, width, height);
+            if (result == null || result.size() == 0) {
+                canvas.setColor(Color.BLACK);
+                canvas.setFont(font);
+                canvas.drawString("No simulation data to display", width / 2 - 100, height / 2);
+                return;
             }
+            layout();
+            drawAxes(canvas);
+            drawSeries(canvas);
+            drawLegend(canvas);
         }
-    }
 
-    // Retrieving investment data from database
-    static class InvestmentDao {
-        private final DatabaseManager dbManager;
+        // Draws the chart into 'image' at the image's size
+        void render(BufferedImage image) {
+            setSize(image.getWidth(), image.getHeight());
+            Graphics2D g2 = image.createGraphics();
+            try {
+                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g2.setFont(font);
+                draw(new Graphics2DCanvas(g2));
+            } finally {
+                g2.dispose();
+            }
+        }
 
-        public InvestmentDao() {
-            this.dbManager = DatabaseManager.getInstance();
+        // Streams the chart to 'out' as an SVG document of the current size
+        void writeSvg(Writer out) throws IOException {
+            SvgCanvas canvas = new SvgCanvas(out, width, height, font);
+            try {
+                draw(canvas);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            canvas.finish();
         }
 
-        public List<Investment> getAllInvestments() {
-            List<Investment> investments = new ArrayList<>();
-            String sql = "SELECT * FROM investments";
+        void drawAxes(ChartCanvas canvas) {
+            int plotWidth = width - 2 * PADDING;
+            int plotHeight = height - 2 * PADDING;
 
-            try (Connection conn = dbManager.getConnection();
-                 Statement stmt = conn.createStatement();
-                 ResultSet rs = stmt.executeQuery(sql)) {
+            // Draw axes
+            canvas.setColor(Color.BLACK);
+            canvas.setStrokeWidth(1f);
+            canvas.setFont(font);
+            canvas.drawLine(PADDING, height - PADDING, PADDING, PADDING); // Y-axis
+            canvas.drawLine(PADDING, height - PADDING, width - PADDING, height - PADDING); // X-axis
 
-                while (rs.next()) {
-                    Investment investment = new Investment(
-                            rs.getInt("id"),
-                            rs.getString("name"),
-                            rs.getString("symbol"),
-                            rs.getString("type"),
-                            rs.getDouble("current_price"),
-                            rs.getDouble("historic_volatility"),
-                            rs.getDouble("annual_return")
-                    );
-                    investments.add(investment);
-                }
-            } catch (SQLException e) {
-                System.err.println("Error fetching investments: " + e.getMessage());
-                e.printStackTrace();
+            // Draw Y-axis marks (values)
+            int numYMarks = 5;
+            for (int i = 0; i <= numYMarks; i++) {
+                int y = height - PADDING - (i * plotHeight / numYMarks);
+                double value = maxValue * i / numYMarks;
+                canvas.drawLine(PADDING - 5, y, PADDING, y);
+                canvas.drawString(valueFormatter.format(value), 5, y + 5);
             }
 
-            return investments;
+            // Draw X-axis marks (time), with the labels rotated for readability
+            int numPoints = result.size();
+            for (int i = 0; i < numPoints; i += Math.max(1, numPoints / 5)) {
+                int x = PADDING + (int) ((long) i * plotWidth / Math.max(1, numPoints - 1));
+                LocalDate date = result.getDate(i);
+                canvas.drawLine(x, height - PADDING, x, height - PADDING + 5);
+                canvas.drawRotatedString(date.format(DATE_FORMATTER), x, height - PADDING + 10, Math.PI / 4);
+            }
         }
-    }
-
-    // Market data service
-    static class MarketDataService {
-        private final InvestmentDao investmentDao;
 
-        public MarketDataService() {
-            this.investmentDao = new InvestmentDao();
+        // Draw lines for all three scenarios, or the fan chart
+        void drawSeries(ChartCanvas canvas) {
+            if (showsBands()) {
+                canvas.setColor(OUTER_BAND_COLOR);
+                canvas.fill(outerBand);
+                canvas.setColor(INNER_BAND_COLOR);
+                canvas.fill(innerBand);
+                drawLine(canvas, seriesX[1], seriesY[1], MODERATE_COLOR);
+                return;
+            }
+            drawLine(canvas, seriesX[0], seriesY[0], OPTIMISTIC_COLOR);
+            drawLine(canvas, seriesX[1], seriesY[1], MODERATE_COLOR);
+            drawLine(canvas, seriesX[2], seriesY[2], PESSIMISTIC_COLOR);
         }
 
-        public List<Investment> getAllInvestments() {
-            return investmentDao.getAllInvestments();
-        }
-    }
+        void layout() {
+            if (projected) return;
+            projected = true;
 
-    // Simulation engine
-    static class SimulationEngine {
-        private final Random random = new Random();
+            // Get maximum value to determine drawing scale
+            maxValue = 0;
+            for (double value : result.getOptimisticValues()) {
+                maxValue = Math.max(maxValue, value);
+            }
 
-        public SimulationResult simulateInvestment(double initialAmount, int periodInYears, Investment investment) {
-            SimulationResult result = new SimulationResult(initialAmount, periodInYears, investment);
+            double[][] series = {result.getOptimisticValues(), result.getModerateValues(), result.getPessimisticValues()};
+            int plotWidth = width - 2 * PADDING;
+            seriesX = new int[series.length][];
+            seriesY = new int[series.length][];
+            for (int s = 0; s < series.length; s++) {
+                int[] indices = largestTriangleThreeBuckets(series[s], Math.max(3, plotWidth));
+                seriesX[s] = new int[indices.length];
+                seriesY[s] = new int[indices.length];
+                project(series[s], indices, seriesX[s], seriesY[s]);
+                if (s == 1) {
+                    medianSteps = indices;
+                    medianX = seriesX[s];
+                }
+            }
 
-            double baseReturn = investment.getAnnualReturn();
-            double volatility = investment.getHistoricVolatility();
+            if (showsBands()) {
+                // All bands share the points kept for the median, so the polygons line up
+                traceBand(outerBand, result.getPercentileBand(5), result.getPercentileBand(95));
+                traceBand(innerBand, result.getPercentileBand(25), result.getPercentileBand(75));
+            }
+        }
 
-            // Optimistic path: return 30% higher than average
-            double optimisticReturn = baseReturn * 1.3;
+        private void project(double[] values, int[] indices, int[] xPoints, int[] yPoints) {
+            int plotWidth = width - 2 * PADDING;
+            int plotHeight = height - 2 * PADDING;
+            int numPoints = result.size();
+            for (int k = 0; k < indices.length; k++) {
+                int i = indices[k];
+                xPoints[k] = PADDING + (int) ((long) i * plotWidth / Math.max(1, numPoints - 1));
+                yPoints[k] = height - PADDING - (int) ((values[i] / maxValue) * plotHeight);
+            }
+        }
 
-            // Pessimistic path: return 30% lower than average
-            double pessimisticReturn = Math.max(baseReturn * 0.7, 0.01); // Not less than 1%
+        // Closed polygon along the upper percentile and back along the lower one
+        private void traceBand(Path2D.Double band, double[] lower, double[] upper) {
+            int plotHeight = height - 2 * PADDING;
+            int bottom = height - PADDING;
+            band.reset();
+            for (int k = 0; k < medianSteps.length; k++) {
+                double y = bottom - upper[medianSteps[k]] / maxValue * plotHeight;
+                if (k == 0) {
+                    band.moveTo(medianX[k], y);
+                } else {
+                    band.lineTo(medianX[k], y);
+                }
+            }
+            for (int k = medianSteps.length - 1; k >= 0; k--) {
+                band.lineTo(medianX[k], bottom - lower[medianSteps[k]] / maxValue * plotHeight);
+            }
+            band.closePath();
+        }
 
-            // Initial values
-            double optimisticValue = initialAmount;
-            double moderateValue = initialAmount;
-            double pessimisticValue = initialAmount;
+        // Largest-Triangle-Three-Buckets: keeps the first and last point and, from each of
+        // threshold - 2 equal buckets in between, the point forming the largest triangle with
+        // the previously kept point and the average of the next bucket. Returns the kept indices.
+        static int[] largestTriangleThreeBuckets(double[] values, int threshold) {
+            int n = values.length;
+            if (threshold >= n || threshold < 3) {
+                int[] all = new int[n];
+                for (int i = 0; i < n; i++) all[i] = i;
+                return all;
+            }
 
-            // Add starting point
-            LocalDate currentDate = LocalDate.now();
-            result.addDataPoint(new SimulationResult.DataPoint(currentDate, optimisticValue, moderateValue, pessimisticValue));
+            int[] kept = new int[threshold];
+            double bucketSize = (double) (n - 2) / (threshold - 2);
+            int previous = 0;
+            for (int b = 0; b < threshold - 2; b++) {
+                int nextStart = (int) ((b + 1) * bucketSize) + 1;
+                int nextEnd = Math.min((int) ((b + 2) * bucketSize) + 1, n);
+                double averageX = 0, averageY = 0;
+                for (int i = nextStart; i < nextEnd; i++) {
+                    averageX += i;
+                    averageY += values[i];
+                }
+                averageX /= nextEnd - nextStart;
+                averageY /= nextEnd - nextStart;
+
+                int start = (int) (b * bucketSize) + 1;
+                int end = (int) ((b + 1) * bucketSize) + 1;
+                double maxArea = -1;
+                int chosen = start;
+                for (int i = start; i < end; i++) {
+                    // Twice the triangle's area; the factor doesn't change which point wins
+                    double area = Math.abs((previous - averageX) * (values[i] - values[previous])
+                            - (previous - i) * (averageY - values[previous]));
+                    if (area > maxArea) {
+                        maxArea = area;
+                        chosen = i;
+                    }
+                }
+                kept[b + 1] = chosen;
+                previous = chosen;
+            }
+            kept[threshold - 1] = n - 1;
+            return kept;
+        }
 
-            // Simulate investment progress over time
-            for (int year = 1; year <= periodInYears; year++) {
-                // Add data every quarter (4 points per year)
-                for (int quarter = 1; quarter <= 4; quarter++) {
-                    currentDate = currentDate.plusMonths(3);
+        private void drawLine(ChartCanvas canvas, int[] xPoints, int[] yPoints, Color color) {
+            int numPoints = xPoints.length;
+            int plotWidth = width - 2 * PADDING;
 
-                    // Calculate investment value for each scenario with random volatility
-                    optimisticValue *= (1 + (optimisticReturn / 4) + (random.nextGaussian() * volatility / 8));
-                    moderateValue *= (1 + (baseReturn / 4) + (random.nextGaussian() * volatility / 8));
-                    pessimisticValue *= (1 + (pessimisticReturn / 4) + (random.nextGaussian() * volatility / 8));
+            canvas.setColor(color);
+            canvas.setStrokeWidth(2f);
+            canvas.drawPolyline(xPoints, yPoints, numPoints);
 
-                    // Add data point to result
-                    result.addDataPoint(new SimulationResult.DataPoint(currentDate, optimisticValue, moderateValue, pessimisticValue));
-                }
+            // Draw points on the line, unless they would merge into a thick line anyway
+            if (numPoints > 1 && plotWidth / (numPoints - 1) < MIN_MARKER_SPACING) return;
+            for (int i = 0; i < numPoints; i++) {
+                canvas.fillCircle(xPoints[i], yPoints[i], 3);
             }
+        }
 
-            // Store final values
-            result.setFinalValueOptimistic(optimisticValue);
-            result.setFinalValueModerate(moderateValue);
-            result.setFinalValuePessimistic(pessimisticValue);
+        void drawLegend(ChartCanvas canvas) {
+            int legendX = width - 200;
+            int legendY = 50;
+            int lineLength = 30;
+            int lineHeight = 20;
 
-            return result;
+            canvas.setFont(LEGEND_FONT);
+            canvas.setStrokeWidth(2f);
+            canvas.setColor(Color.BLACK);
+            canvas.drawString("Legend:", legendX, legendY);
+
+            if (showsBands()) {
+                canvas.setColor(OUTER_BAND_COLOR);
+                canvas.fillRect(legendX, legendY + lineHeight - 6, lineLength, 12);
+                canvas.setColor(Color.BLACK);
+                canvas.drawString("P5 - P95", legendX + lineLength + 10, legendY + lineHeight + 5);
+
+                canvas.setColor(INNER_BAND_COLOR);
+                canvas.fillRect(legendX, legendY + 2*lineHeight - 6, lineLength, 12);
+                canvas.setColor(Color.BLACK);
+                canvas.drawString("P25 - P75", legendX + lineLength + 10, legendY + 2*lineHeight + 5);
+
+                canvas.setColor(MODERATE_COLOR);
+                canvas.drawLine(legendX, legendY + 3*lineHeight, legendX + lineLength, legendY + 3*lineHeight);
+                canvas.drawString("Median (P50)", legendX + lineLength + 10, legendY + 3*lineHeight + 5);
+                return;
+            }
+
+            // Optimistic
+            canvas.setColor(OPTIMISTIC_COLOR);
+            canvas.drawLine(legendX, legendY + lineHeight, legendX + lineLength, legendY + lineHeight);
+            canvas.fillCircle(legendX + lineLength/2, legendY + lineHeight, 3);
+            canvas.drawString("Optimistic", legendX + lineLength + 10, legendY + lineHeight + 5);
+
+            // Moderate
+            canvas.setColor(MODERATE_COLOR);
+            canvas.drawLine(legendX, legendY + 2*lineHeight, legendX + lineLength, legendY + 2*lineHeight);
+            canvas.fillCircle(legendX + lineLength/2, legendY + 2*lineHeight, 3);
+            canvas.drawString("Moderate", legendX + lineLength + 10, legendY + 2*lineHeight + 5);
+
+            // Pessimistic
+            canvas.setColor(PESSIMISTIC_COLOR);
+            canvas.drawLine(legendX, legendY + 3*lineHeight, legendX + lineLength, legendY + 3*lineHeight);
+            canvas.fillCircle(legendX + lineLength/2, legendY + 3*lineHeight, 3);
+            canvas.drawString("Pessimistic", legendX + lineLength + 10, legendY + 3*lineHeight + 5);
         }
     }
 
     // Graph panel
     static class GraphPanel extends JPanel {
-        private SimulationResult result;
-        private final Color OPTIMISTIC_COLOR = new Color(46, 139, 87);  // SeaGreen
-        private final Color MODERATE_COLOR = new Color(25, 25, 112);    // MidnightBlue
-        private final Color PESSIMISTIC_COLOR = new Color(178, 34, 34); // Firebrick
-        private final int PADDING = 50;
+        private final ChartRenderer renderer = new ChartRenderer();
+
+        // The chart is composed from three cached layers: axes on a white background, the
+        // series, and the legend. Each is redrawn only when its inputs or the size change, and
+        // the opaque composite of the three is rebuilt only then, so other repaints are a single
+        // image copy. Layers are rendered at the device scale.
+        private BufferedImage axesLayer, seriesLayer, legendLayer, composite;
+        private boolean axesValid, seriesValid, legendValid, compositeValid;
+        private double layerScale;
+
+        private final DecimalFormat valueFormatter = new DecimalFormat("$#,###");
+        // Index into the renderer's median points of the hovered point, and the projection it
+        // indexes; layout() replaces that array whenever it reprojects, e.g. after a resize
+        private int hoverPoint = -1;
+        private int[] hoverProjection;
 
         public GraphPanel() {
             setBackground(Color.WHITE);
             setBorder(BorderFactory.createLineBorder(Color.GRAY));
+
+            MouseAdapter hoverListener = new MouseAdapter() {
+                @Override
+                public void mouseMoved(MouseEvent e) {
+                    updateHover(e.getX());
+                }
+
+                @Override
+                public void mouseExited(MouseEvent e) {
+                    if (hoverPoint >= 0) {
+                        clearHover();
+                        repaint();
+                    }
+                }
+            };
+            addMouseMotionListener(hoverListener);
+            addMouseListener(hoverListener);
+        }
+
+        public void setFanChart(boolean fanChart) {
+            if (renderer.isFanChart() == fanChart) return;
+            renderer.setFanChart(fanChart);
+            seriesValid = false;
+            legendValid = false;
+            repaint();
         }
 
+        public boolean isFanChart() { return renderer.isFanChart(); }
+
         public void setSimulationResult(SimulationResult result) {
-            this.result = result;
+            SimulationResult previous = renderer.getResult();
+            renderer.setResult(result);
+            seriesValid = false;
+            clearHover();
+            if (previous == null || result == null || previous.hasPercentileBands() != result.hasPercentileBands()) {
+                legendValid = false;
+            }
+            // The axes also depend on the maximum value, which paintComponent compares
+            if (previous == null || result == null || previous.size() != result.size()
+                    || !previous.getStartDate().equals(result.getStartDate())
+                    || !previous.getStep().equals(result.getStep())) {
+                axesValid = false;
+            }
             repaint();
         }
 
@@ -348,118 +3064,141 @@ class investment extends JFrame {
             Graphics2D g2 = (Graphics2D) g;
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-            if (result == null || result.getDataPoints().isEmpty()) {
+            SimulationResult result = renderer.getResult();
+            if (result == null || result.size() == 0) {
                 g2.drawString("No simulation data to display", getWidth() / 2 - 100, getHeight() / 2);
                 return;
             }
 
-            // Get maximum value to determine drawing scale
-            double maxValue = 0;
-            for (SimulationResult.DataPoint point : result.getDataPoints()) {
-                maxValue = Math.max(maxValue, point.getOptimisticValue());
+            renderer.setSize(getWidth(), getHeight());
+            renderer.setFont(getFont());
+            double previousMaxValue = renderer.getMaxValue();
+            renderer.layout();
+            if (renderer.getMaxValue() != previousMaxValue) {
+                axesValid = false;
+            }
+            // The hovered index belongs to the previous projection
+            if (hoverPoint >= 0 && renderer.getMedianX() != hoverProjection) {
+                clearHover();
             }
 
-            int width = getWidth() - 2 * PADDING;
-            int height = getHeight() - 2 * PADDING;
-
-            // Draw axes
-            g2.setColor(Color.BLACK);
-            g2.drawLine(PADDING, getHeight() - PADDING, PADDING, PADDING); // Y-axis
-            g2.drawLine(PADDING, getHeight() - PADDING, getWidth() - PADDING, getHeight() - PADDING); // X-axis
-
-            // Draw Y-axis marks (values)
-            DecimalFormat formatter = new DecimalFormat("$#,###");
-            int numYMarks = 5;
-            for (int i = 0; i <= numYMarks; i++) {
-                int y = getHeight() - PADDING - (i * height / numYMarks);
-                double value = maxValue * i / numYMarks;
-                g2.drawLine(PADDING - 5, y, PADDING, y);
-                g2.drawString(formatter.format(value), 5, y + 5);
+            double scale = g2.getTransform().getScaleX();
+            if (axesLayer == null || axesLayer.getWidth() != (int) Math.ceil(getWidth() * scale)
+                    || axesLayer.getHeight() != (int) Math.ceil(getHeight() * scale) || scale != layerScale) {
+                layerScale = scale;
+                axesLayer = createLayer(BufferedImage.TYPE_INT_RGB);
+                seriesLayer = createLayer(BufferedImage.TYPE_INT_ARGB);
+                legendLayer = createLayer(BufferedImage.TYPE_INT_ARGB);
+                composite = createLayer(BufferedImage.TYPE_INT_RGB);
+                axesValid = false;
+                seriesValid = false;
+                legendValid = false;
+            }
+            if (!axesValid) {
+                drawLayer(axesLayer, renderer::drawAxes);
+                axesValid = true;
+                compositeValid = false;
+            }
+            if (!seriesValid) {
+                drawLayer(seriesLayer, renderer::drawSeries);
+                seriesValid = true;
+                compositeValid = false;
+            }
+            if (!legendValid) {
+                drawLayer(legendLayer, renderer::drawLegend);
+                legendValid = true;
+                compositeValid = false;
+            }
+            if (!compositeValid) {
+                Graphics2D composed = composite.createGraphics();
+                composed.drawImage(axesLayer, 0, 0, null);
+                composed.drawImage(seriesLayer, 0, 0, null);
+                composed.drawImage(legendLayer, 0, 0, null);
+                composed.dispose();
+                compositeValid = true;
             }
 
-            // Draw X-axis marks (time)
-            int numPoints = result.getDataPoints().size();
-            DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("MMM yyyy");
+            g2.drawImage(composite, 0, 0, getWidth(), getHeight(), null);
 
-            for (int i = 0; i < numPoints; i += numPoints / 5) {
-                if (i < numPoints) {
-                    int x = PADDING + i * width / (numPoints - 1);
-                    LocalDate date = result.getDataPoints().get(i).getDate();
-                    g2.drawLine(x, getHeight() - PADDING, x, getHeight() - PADDING + 5);
+            // The hover marker is the only thing drawn on top of the cached image
+            if (hoverPoint >= 0) {
+                int x = renderer.getMedianX()[hoverPoint];
+                g2.setColor(Color.GRAY);
+                g2.drawLine(x, ChartRenderer.PADDING, x, getHeight() - ChartRenderer.PADDING);
+            }
+        }
 
-                    // Rotate text for readability
-                    AffineTransform originalTransform = g2.getTransform();
-                    g2.rotate(Math.PI / 4, x, getHeight() - PADDING + 10);
-                    g2.drawString(date.format(dateFormatter), x, getHeight() - PADDING + 10);
-                    g2.setTransform(originalTransform);
+        // Finds the projected point nearest to the mouse with a binary search over the x
+        // positions and shows its values in the tooltip
+        private void updateHover(int mouseX) {
+            int[] hoverX = renderer.getMedianX();
+            if (renderer.getResult() == null || hoverX == null || hoverX.length == 0) return;
+            int point = Arrays.binarySearch(hoverX, mouseX);
+            if (point < 0) {
+                int insertion = -point - 1;
+                if (insertion == 0) {
+                    point = 0;
+                } else if (insertion == hoverX.length) {
+                    point = hoverX.length - 1;
+                } else {
+                    point = mouseX - hoverX[insertion - 1] <= hoverX[insertion] - mouseX ? insertion - 1 : insertion;
                 }
             }
-
-            // Draw lines for all three scenarios
-            drawLine(g2, result.getDataPoints(), maxValue, SimulationResult.DataPoint::getOptimisticValue, OPTIMISTIC_COLOR);
-            drawLine(g2, result.getDataPoints(), maxValue, SimulationResult.DataPoint::getModerateValue, MODERATE_COLOR);
-            drawLine(g2, result.getDataPoints(), maxValue, SimulationResult.DataPoint::getPessimisticValue, PESSIMISTIC_COLOR);
-
-            // Draw color legend
-            drawLegend(g2);
+            if (point == hoverPoint) return;
+            hoverPoint = point;
+            hoverProjection = hoverX;
+            setToolTipText(tooltipText(renderer.getMedianSteps()[point]));
+            repaint();
         }
 
-        private interface ValueExtractor {
-            double getValue(SimulationResult.DataPoint point);
+        private void clearHover() {
+            hoverPoint = -1;
+            hoverProjection = null;
+            setToolTipText(null);
         }
 
-        private void drawLine(Graphics2D g2, List<SimulationResult.DataPoint> points, double maxValue,
-                              ValueExtractor valueExtractor, Color color) {
-            int numPoints = points.size();
-            int width = getWidth() - 2 * PADDING;
-            int height = getHeight() - 2 * PADDING;
-
-            g2.setColor(color);
-            g2.setStroke(new BasicStroke(2f));
-
-            int[] xPoints = new int[numPoints];
-            int[] yPoints = new int[numPoints];
-
-            for (int i = 0; i < numPoints; i++) {
-                double value = valueExtractor.getValue(points.get(i));
-                xPoints[i] = PADDING + i * width / (numPoints - 1);
-                yPoints[i] = getHeight() - PADDING - (int)((value / maxValue) * height);
-            }
-
-            g2.drawPolyline(xPoints, yPoints, numPoints);
-
-            // Draw points on the line
-            for (int i = 0; i < numPoints; i++) {
-                g2.fill(new Ellipse2D.Double(xPoints[i] - 3, yPoints[i] - 3, 6, 6));
+        private String tooltipText(int step) {
+            SimulationResult result = renderer.getResult();
+            StringBuilder text = new StringBuilder("<html><b>")
+                    .append(result.getDate(step).format(ChartRenderer.DATE_FORMATTER)).append("</b>");
+            if (result.hasPercentileBands()) {
+                double[] levels = result.getPercentileLevels();
+                for (int i = levels.length - 1; i >= 0; i--) {
+                    text.append("<br>P").append((int) levels[i]).append(": ")
+                            .append(valueFormatter.format(result.getPercentileBand(levels[i])[step]));
+                }
+            } else {
+                text.append("<br>Optimistic: ").append(valueFormatter.format(result.getOptimisticValues()[step]))
+                        .append("<br>Moderate: ").append(valueFormatter.format(result.getModerateValues()[step]))
+                        .append("<br>Pessimistic: ").append(valueFormatter.format(result.getPessimisticValues()[step]));
             }
+            return text.append("</html>").toString();
         }
 
-        private void drawLegend(Graphics2D g2) {
-            int legendX = getWidth() - 200;
-            int legendY = 50;
-            int lineLength = 30;
-            int lineHeight = 20;
-
-            g2.setFont(new Font("SansSerif", Font.BOLD, 12));
-            g2.drawString("Legend:", legendX, legendY);
-
-            // Optimistic
-            g2.setColor(OPTIMISTIC_COLOR);
-            g2.drawLine(legendX, legendY + lineHeight, legendX + lineLength, legendY + lineHeight);
-            g2.fill(new Ellipse2D.Double(legendX + lineLength/2 - 3, legendY + lineHeight - 3, 6, 6));
-            g2.drawString("Optimistic", legendX + lineLength + 10, legendY + lineHeight + 5);
-
-            // Moderate
-            g2.setColor(MODERATE_COLOR);
-            g2.drawLine(legendX, legendY + 2*lineHeight, legendX + lineLength, legendY + 2*lineHeight);
-            g2.fill(new Ellipse2D.Double(legendX + lineLength/2 - 3, legendY + 2*lineHeight - 3, 6, 6));
-            g2.drawString("Moderate", legendX + lineLength + 10, legendY + 2*lineHeight + 5);
+        private BufferedImage createLayer(int type) {
+            return new BufferedImage((int) Math.ceil(getWidth() * layerScale),
+                    (int) Math.ceil(getHeight() * layerScale), type);
+        }
 
-            // Pessimistic
-            g2.setColor(PESSIMISTIC_COLOR);
-            g2.drawLine(legendX, legendY + 3*lineHeight, legendX + lineLength, legendY + 3*lineHeight);
-            g2.fill(new Ellipse2D.Double(legendX + lineLength/2 - 3, legendY + 3*lineHeight - 3, 6, 6));
-            g2.drawString("Pessimistic", legendX + lineLength + 10, legendY + 3*lineHeight + 5);
+        // Clears the layer and paints it in component coordinates
+        private void drawLayer(BufferedImage layer, Consumer<ChartCanvas> painter) {
+            Graphics2D g2 = layer.createGraphics();
+            try {
+                if (layer.getType() == BufferedImage.TYPE_INT_RGB) {
+                    g2.setColor(getBackground());
+                    g2.fillRect(0, 0, layer.getWidth(), layer.getHeight());
+                } else {
+                    g2.setComposite(AlphaComposite.Clear);
+                    g2.fillRect(0, 0, layer.getWidth(), layer.getHeight());
+                    g2.setComposite(AlphaComposite.SrcOver);
+                }
+                g2.scale(layerScale, layerScale);
+                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g2.setFont(getFont());
+                painter.accept(new Graphics2DCanvas(g2));
+            } finally {
+                g2.dispose();
+            }
         }
     }
 
@@ -472,14 +3211,37 @@ class investment extends JFrame {
         private JComboBox<Investment> investmentComboBox;
         private JTextField amountField;
         private JComboBox<Integer> yearsComboBox;
+        private JComboBox<String> modeComboBox;
+        private JComboBox<VarianceReduction> varianceReductionComboBox;
+        private JTextField targetPrecisionField, timeBudgetField;
+        private JCheckBox riskMetricsCheckBox;
+        private JCheckBox fanChartCheckBox;
         private JButton simulateButton;
+        private JButton portfolioButton;
+        private JButton exportButton;
         private JPanel resultPanel;
         private GraphPanel graphPanel;
         private JLabel optimisticValueLabel, moderateValueLabel, pessimisticValueLabel;
+        private JLabel pathsLabel, stopReasonLabel, meanValueLabel;
+        private JLabel valueAtRiskLabel, expectedShortfallLabel, drawdownLabel, recoveryLabel;
+        private JProgressBar progressBar;
 
         private SimulationResult currentResult;
+        private SimulationWorker simulationWorker;
+        private Portfolio lastPortfolio;
+        private double[][] lastPortfolioCorrelation;
         private final DecimalFormat currencyFormat = new DecimalFormat("$#,##0.00");
 
+        private static final String MODE_AUTOMATIC = "Percentile Bands (automatic)";
+        private static final String MODE_MONTE_CARLO = "Monte Carlo (10,000 paths)";
+        private static final String MODE_THREE_SCENARIOS = "Three Scenarios";
+
+        // Monte Carlo runs publish a partial result after each of this many batches
+        private static final int PROGRESS_BATCHES = 20;
+        // Adaptive runs end on precision or time; their path limit only bounds the memory of the
+        // stored paths, at about this many path-steps (4 bytes each)
+        private static final int ADAPTIVE_MAX_PATH_STEPS = 25_000_000;
+
         public SimulationPanel() {
             this.marketDataService = new MarketDataService();
             this.simulationEngine = new SimulationEngine();
@@ -520,15 +3282,76 @@ class investment extends JFrame {
             }
             inputPanel.add(investmentComboBox);
 
+            // Simulation mode dropdown
+            inputPanel.add(new JLabel("Simulation Mode:"));
+            modeComboBox = new JComboBox<>(new String[] {MODE_AUTOMATIC, MODE_MONTE_CARLO, MODE_THREE_SCENARIOS});
+            inputPanel.add(modeComboBox);
+
+            // Variance reduction dropdown (choosing a technique makes the automatic mode simulate paths)
+            inputPanel.add(new JLabel("Variance Reduction:"));
+            varianceReductionComboBox = new JComboBox<>(VarianceReduction.values());
+            inputPanel.add(varianceReductionComboBox);
+
+            // Adaptive runs: stop adding paths once P5 and P95 are this precise or the time is up.
+            // Blank means no limit; either one makes the automatic mode simulate paths.
+            inputPanel.add(new JLabel("Target Precision (% of P5/P95, optional):"));
+            targetPrecisionField = new JTextField();
+            inputPanel.add(targetPrecisionField);
+
+            inputPanel.add(new JLabel("Time Budget (seconds, optional):"));
+            timeBudgetField = new JTextField();
+            inputPanel.add(timeBudgetField);
+
+            // Simulated runs always report risk metrics; analytic bands get them from streamed
+            // paths that are never stored
+            inputPanel.add(new JLabel("Risk Metrics:"));
+            riskMetricsCheckBox = new JCheckBox("VaR, CVaR and drawdowns with analytic bands", true);
+            inputPanel.add(riskMetricsCheckBox);
+
+            modeComboBox.addActionListener(e -> {
+                boolean paths = !MODE_THREE_SCENARIOS.equals(modeComboBox.getSelectedItem());
+                varianceReductionComboBox.setEnabled(paths);
+                targetPrecisionField.setEnabled(paths);
+                timeBudgetField.setEnabled(paths);
+                riskMetricsCheckBox.setEnabled(MODE_AUTOMATIC.equals(modeComboBox.getSelectedItem()));
+            });
+
+            // Chart style: shaded percentile bands or one line per scenario
+            inputPanel.add(new JLabel("Chart Style:"));
+            fanChartCheckBox = new JCheckBox("Shaded percentile bands (fan chart)", true);
+            fanChartCheckBox.addActionListener(e -> {
+                if (graphPanel != null) {
+                    graphPanel.setFanChart(fanChartCheckBox.isSelected());
+                }
+            });
+            inputPanel.add(fanChartCheckBox);
+
             // Simulation button
             simulateButton = new JButton("Run Simulation");
             simulateButton.addActionListener(new ActionListener() {
                 @Override
                 public void actionPerformed(ActionEvent e) {
-                    runSimulation();
+                    runSimulation(false);
                 }
             });
+            // Portfolio button: every listed investment at equal weight, with correlated returns
+            portfolioButton = new JButton("Simulate Portfolio");
+            portfolioButton.setToolTipText("Equal-weighted portfolio of all listed investments, using their correlations");
+            portfolioButton.addActionListener(e -> runSimulation(true));
+            // Export button (enabled once there is a result)
+            exportButton = new JButton("Export...");
+            exportButton.setEnabled(false);
+            exportButton.addActionListener(e -> exportResults());
+
+            // Progress of the running simulation
+            progressBar = new JProgressBar(0, 100);
+            progressBar.setStringPainted(true);
+            progressBar.setVisible(false);
+
             JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            buttonPanel.add(progressBar);
+            buttonPanel.add(exportButton);
+            buttonPanel.add(portfolioButton);
             buttonPanel.add(simulateButton);
 
             JPanel topPanel = new JPanel(new BorderLayout());
@@ -538,12 +3361,15 @@ class investment extends JFrame {
             add(topPanel, BorderLayout.NORTH);
         }
 
-        private void runSimulation() {
+        // With portfolio set, simulates all investments in the dropdown together instead of the selected one
+        private void runSimulation(boolean portfolio) {
             try {
                 // Read user inputs
                 double amount = Double.parseDouble(amountField.getText().replace(",", "").replace("$", ""));
                 int years = (Integer) yearsComboBox.getSelectedItem();
                 Investment selectedInvestment = (Investment) investmentComboBox.getSelectedItem();
+                double targetPrecision = parseOptional(targetPrecisionField);
+                double timeBudget = parseOptional(timeBudgetField);
 
                 // Validate inputs
                 if (amount <= 0) {
@@ -551,25 +3377,159 @@ class investment extends JFrame {
                     return;
                 }
 
-                if (selectedInvestment == null) {
+                if (targetPrecision < 0 || timeBudget < 0) {
+                    JOptionPane.showMessageDialog(this, "Target precision and time budget cannot be negative", "Input Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+
+                List<Investment> portfolioInvestments = null;
+                if (portfolio) {
+                    portfolioInvestments = new ArrayList<>();
+                    for (int i = 0; i < investmentComboBox.getItemCount(); i++) {
+                        portfolioInvestments.add(investmentComboBox.getItemAt(i));
+                    }
+                    if (portfolioInvestments.isEmpty()) {
+                        JOptionPane.showMessageDialog(this, "There are no investments to build a portfolio from", "Input Error", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                } else if (selectedInvestment == null) {
                     JOptionPane.showMessageDialog(this, "Please select an investment", "Input Error", JOptionPane.ERROR_MESSAGE);
                     return;
                 }
 
-                // Run simulation
-                setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-                currentResult = simulationEngine.simulateInvestment(amount, years, selectedInvestment);
+                // A new run replaces the one in flight instead of queueing behind it
+                if (simulationWorker != null && !simulationWorker.isDone()) {
+                    simulationWorker.cancel(false);
+                }
 
-                // Display results
-                displayResults();
-                setCursor(Cursor.getDefaultCursor());
+                // Run simulation in the background
+                progressBar.setValue(0);
+                progressBar.setIndeterminate(false);
+                progressBar.setVisible(true);
+                SimulationOptions options = null;
+                if (!MODE_THREE_SCENARIOS.equals(modeComboBox.getSelectedItem())) {
+                    options = new SimulationOptions();
+                    options.setMonteCarloRequested(MODE_MONTE_CARLO.equals(modeComboBox.getSelectedItem()));
+                    options.setVarianceReduction((VarianceReduction) varianceReductionComboBox.getSelectedItem());
+                    options.setTargetPrecision(targetPrecision / 100);
+                    options.setTimeBudgetMillis((long) (timeBudget * 1000));
+                    options.setRiskMetricsRequested(riskMetricsCheckBox.isSelected());
+                    // Portfolios simulate a fixed path count and ignore the adaptive settings
+                    if (options.isAdaptive() && !portfolio) {
+                        options.setPathCount(Math.max(SimulationEngine.DEFAULT_PATH_COUNT,
+                                ADAPTIVE_MAX_PATH_STEPS / (years * 4 + 1)));
+                        // Without a time budget there is no telling how far along the run is
+                        progressBar.setIndeterminate(options.getTimeBudgetMillis() == 0);
+                    }
+                }
+                simulationWorker = new SimulationWorker(amount, years, selectedInvestment, portfolioInvestments, options);
+                simulationWorker.addPropertyChangeListener(e -> {
+                    if ("progress".equals(e.getPropertyName())) {
+                        progressBar.setValue((Integer) e.getNewValue());
+                    }
+                });
+                simulationWorker.execute();
 
             } catch (NumberFormatException e) {
-                JOptionPane.showMessageDialog(this, "Please enter a valid number for amount", "Input Error", JOptionPane.ERROR_MESSAGE);
+                JOptionPane.showMessageDialog(this, "Please enter valid numbers for amount, target precision and time budget", "Input Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
+        // Equal-weighted portfolio of the given investments. The last one is reused while the
+        // investments and their correlations are unchanged, so its Cholesky factor is computed once.
+        // Called from the simulation worker.
+        private synchronized Portfolio equalWeightedPortfolio(List<Investment> investments) {
+            double[][] correlation = marketDataService.getCorrelationMatrix(investments);
+            if (lastPortfolio == null || !lastPortfolio.getInvestments().equals(investments)
+                    || !Arrays.deepEquals(lastPortfolioCorrelation, correlation)) {
+                lastPortfolio = Portfolio.equalWeighted(investments, correlation);
+                lastPortfolioCorrelation = correlation;
             }
+            return lastPortfolio;
+        }
+
+        // Value of an optional numeric field; blank means 0 (not set)
+        private static double parseOptional(JTextField field) {
+            String text = field.getText().trim();
+            return text.isEmpty() ? 0 : Double.parseDouble(text);
+        }
+
+        private void exportResults() {
+            if (currentResult == null) return;
+
+            // One filter per format; the suggested name follows the chosen filter
+            FileNameExtensionFilter csvFilter = new FileNameExtensionFilter("CSV data (*.csv)", "csv");
+            FileNameExtensionFilter pngFilter = new FileNameExtensionFilter("PNG chart (*.png)", "png");
+            FileNameExtensionFilter svgFilter = new FileNameExtensionFilter("SVG chart (*.svg)", "svg");
+            JFileChooser chooser = new JFileChooser();
+            chooser.setAcceptAllFileFilterUsed(false);
+            chooser.addChoosableFileFilter(csvFilter);
+            chooser.addChoosableFileFilter(pngFilter);
+            chooser.addChoosableFileFilter(svgFilter);
+            chooser.setFileFilter(csvFilter);
+            String baseName = currentResult.getInvestment().getSymbol() + "_simulation";
+            chooser.setSelectedFile(new File(baseName + ".csv"));
+            chooser.addPropertyChangeListener(JFileChooser.FILE_FILTER_CHANGED_PROPERTY, e -> {
+                if (e.getNewValue() instanceof FileNameExtensionFilter) {
+                    String extension = ((FileNameExtensionFilter) e.getNewValue()).getExtensions()[0];
+                    chooser.setSelectedFile(new File(baseName + "." + extension));
+                }
+            });
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+
+            // A typed .csv, .png or .svg name wins over the filter; otherwise the filter's
+            // extension is added
+            File chosen = chooser.getSelectedFile();
+            String name = chosen.getName().toLowerCase(Locale.ROOT);
+            String format = name.endsWith(".png") ? "png" : name.endsWith(".svg") ? "svg" : name.endsWith(".csv") ? "csv"
+                    : ((FileNameExtensionFilter) chooser.getFileFilter()).getExtensions()[0];
+            File file = name.endsWith("." + format) ? chosen : new File(chosen.getParentFile(), chosen.getName() + "." + format);
+
+            // Rendering and encoding take a while for large charts, so they run off the event thread
+            SimulationResult result = currentResult;
+            boolean fanChart = fanChartCheckBox.isSelected();
+            exportButton.setEnabled(false);
+            new SwingWorker<Void, Void>() {
+                @Override
+                protected Void doInBackground() throws IOException {
+                    if ("csv".equals(format)) {
+                        try (Writer writer = new FileWriter(file)) {
+                            result.writeCsv(writer);
+                        }
+                        return null;
+                    }
+                    ChartRenderer renderer = new ChartRenderer();
+                    renderer.setResult(result);
+                    renderer.setFanChart(fanChart);
+                    renderer.setSize(ChartRenderer.EXPORT_WIDTH, ChartRenderer.EXPORT_HEIGHT);
+                    if ("png".equals(format)) {
+                        BufferedImage image = new BufferedImage(ChartRenderer.EXPORT_WIDTH, ChartRenderer.EXPORT_HEIGHT, BufferedImage.TYPE_INT_RGB);
+                        renderer.render(image);
+                        ImageIO.write(image, "png", file);
+                    } else {
+                        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                            renderer.writeSvg(writer);
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                protected void done() {
+                    exportButton.setEnabled(currentResult != null);
+                    try {
+                        get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        JOptionPane.showMessageDialog(SimulationPanel.this, "Error exporting results: " + cause.getMessage(),
+                                "Export Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }.execute();
         }
 
         private void displayResults() {
+            exportButton.setEnabled(true);
             resultPanel.removeAll();
             resultPanel.setVisible(true);
 
@@ -587,27 +3547,70 @@ class investment extends JFrame {
             summaryPanel.add(new JLabel("Time Period:"));
             summaryPanel.add(new JLabel(currentResult.getPeriodInYears() + " years"));
 
+            pathsLabel = null;
+            if (currentResult.isMonteCarlo()) {
+                summaryPanel.add(new JLabel("Simulated Paths:"));
+                pathsLabel = new JLabel(formatPathCount(currentResult));
+                summaryPanel.add(pathsLabel);
+            }
+
+            stopReasonLabel = null;
+            if (simulationWorker != null && simulationWorker.isAdaptive()) {
+                summaryPanel.add(new JLabel("Stopped Because:"));
+                stopReasonLabel = new JLabel(formatStopReason(currentResult));
+                summaryPanel.add(stopReasonLabel);
+            }
+
+            meanValueLabel = null;
+            if (currentResult.hasPercentileBands()) {
+                summaryPanel.add(new JLabel("Mean Final Value:"));
+                meanValueLabel = new JLabel(formatMeanEstimate(currentResult));
+                summaryPanel.add(meanValueLabel);
+            }
+
             // Expected results
-            summaryPanel.add(new JLabel("Optimistic Final Value:"));
+            summaryPanel.add(new JLabel(currentResult.hasPercentileBands() ? "Optimistic (P95) Final Value:" : "Optimistic Final Value:"));
             optimisticValueLabel = new JLabel(currencyFormat.format(currentResult.getFinalValueOptimistic()));
             optimisticValueLabel.setForeground(new Color(46, 139, 87)); // SeaGreen
             optimisticValueLabel.setFont(optimisticValueLabel.getFont().deriveFont(Font.BOLD));
             summaryPanel.add(optimisticValueLabel);
 
-            summaryPanel.add(new JLabel("Moderate Final Value:"));
+            summaryPanel.add(new JLabel(currentResult.hasPercentileBands() ? "Moderate (P50) Final Value:" : "Moderate Final Value:"));
             moderateValueLabel = new JLabel(currencyFormat.format(currentResult.getFinalValueModerate()));
             moderateValueLabel.setForeground(new Color(25, 25, 112)); // MidnightBlue
             moderateValueLabel.setFont(moderateValueLabel.getFont().deriveFont(Font.BOLD));
             summaryPanel.add(moderateValueLabel);
 
-            summaryPanel.add(new JLabel("Pessimistic Final Value:"));
+            summaryPanel.add(new JLabel(currentResult.hasPercentileBands() ? "Pessimistic (P5) Final Value:" : "Pessimistic Final Value:"));
             pessimisticValueLabel = new JLabel(currencyFormat.format(currentResult.getFinalValuePessimistic()));
             pessimisticValueLabel.setForeground(new Color(178, 34, 34)); // Firebrick
             pessimisticValueLabel.setFont(pessimisticValueLabel.getFont().deriveFont(Font.BOLD));
             summaryPanel.add(pessimisticValueLabel);
 
+            valueAtRiskLabel = null;
+            if (currentResult.hasRiskMetrics()) {
+                int years = currentResult.getPeriodInYears();
+                summaryPanel.add(new JLabel("Value at Risk (95%, " + years + " years):"));
+                valueAtRiskLabel = new JLabel();
+                summaryPanel.add(valueAtRiskLabel);
+
+                summaryPanel.add(new JLabel("Expected Shortfall / CVaR (95%, " + years + " years):"));
+                expectedShortfallLabel = new JLabel();
+                summaryPanel.add(expectedShortfallLabel);
+
+                summaryPanel.add(new JLabel("Max Drawdown (mean / P95):"));
+                drawdownLabel = new JLabel();
+                summaryPanel.add(drawdownLabel);
+
+                summaryPanel.add(new JLabel("Recovery from Max Drawdown:"));
+                recoveryLabel = new JLabel();
+                summaryPanel.add(recoveryLabel);
+                updateRiskLabels();
+            }
+
             // Graph panel
             graphPanel = new GraphPanel();
+            graphPanel.setFanChart(fanChartCheckBox.isSelected());
             graphPanel.setSimulationResult(currentResult);
 
             // Add panels to results panel
@@ -618,5 +3621,163 @@ class investment extends JFrame {
             revalidate();
             repaint();
         }
+
+        private void updateRiskLabels() {
+            RiskMetrics risk = currentResult.getRiskMetrics();
+            valueAtRiskLabel.setText(risk.getValueAtRisk() > 0 ? currencyFormat.format(risk.getValueAtRisk())
+                    : "No loss at 95%");
+            expectedShortfallLabel.setText(risk.getExpectedShortfall() > 0
+                    ? currencyFormat.format(risk.getExpectedShortfall()) : "No loss in the worst 5% of paths");
+            drawdownLabel.setText(String.format("%.1f%% / %.1f%%", risk.getMeanMaxDrawdown() * 100,
+                    risk.getMaxDrawdownPercentile() * 100));
+            String median = Double.isNaN(risk.getMedianRecoveryQuarters()) ? "n/a"
+                    : String.format("%.0f quarters (median)", risk.getMedianRecoveryQuarters());
+            recoveryLabel.setText(String.format("%s, %.1f%% of paths never recover", median,
+                    risk.getUnrecoveredFraction() * 100));
+        }
+
+        private String formatPathCount(SimulationResult result) {
+            return String.format("%,d", result.getPathCount());
+        }
+
+        // Why an adaptive run stopped and how precise P5 and P95 are; partial results have no reason yet
+        private String formatStopReason(SimulationResult result) {
+            if (result.getStopReason() == null) return "Still running";
+            return String.format("%s (P5/P95 within \u00B1%.2f%%)", result.getStopReason().getDescription(),
+                    result.getAchievedPrecision() * 100);
+        }
+
+        private String formatMeanEstimate(SimulationResult result) {
+            if (result.isAnalytic()) {
+                return currencyFormat.format(result.getMeanFinalValue()) + " (exact, analytic)";
+            }
+            return currencyFormat.format(result.getMeanFinalValue()) + " \u00B1 "
+                    + currencyFormat.format(result.getStandardError()) + " (std. error, "
+                    + result.getVarianceReduction().getDescription() + ")";
+        }
+
+        // Refreshes the values shown by displayResults with a newer partial result
+        private void updateResults() {
+            if (pathsLabel != null) {
+                pathsLabel.setText(formatPathCount(currentResult));
+            }
+            if (stopReasonLabel != null) {
+                stopReasonLabel.setText(formatStopReason(currentResult));
+            }
+            if (meanValueLabel != null) {
+                meanValueLabel.setText(formatMeanEstimate(currentResult));
+            }
+            optimisticValueLabel.setText(currencyFormat.format(currentResult.getFinalValueOptimistic()));
+            moderateValueLabel.setText(currencyFormat.format(currentResult.getFinalValueModerate()));
+            pessimisticValueLabel.setText(currencyFormat.format(currentResult.getFinalValuePessimistic()));
+            if (valueAtRiskLabel != null && currentResult.hasRiskMetrics()) {
+                updateRiskLabels();
+            }
+            graphPanel.setSimulationResult(currentResult);
+        }
+
+        // Runs a simulation off the event dispatch thread. Monte Carlo runs publish the
+        // percentile bands after every batch of paths, so the chart tightens while it runs.
+        private class SimulationWorker extends SwingWorker<SimulationResult, SimulationResult> {
+            private final double amount;
+            private final int years;
+            private final Investment investment;
+            private final List<Investment> portfolio; // null unless simulating the equal-weighted portfolio
+            private final SimulationOptions options; // null for the three-scenario simulation
+            private boolean displayed;
+
+            SimulationWorker(double amount, int years, Investment investment, List<Investment> portfolio,
+                             SimulationOptions options) {
+                this.amount = amount;
+                this.years = years;
+                this.investment = investment;
+                this.portfolio = portfolio;
+                this.options = options;
+            }
+
+            boolean isAdaptive() {
+                return portfolio == null && options != null && options.isAdaptive();
+            }
+
+            @Override
+            protected SimulationResult doInBackground() {
+                if (portfolio != null) {
+                    // Portfolios are always simulated path by path, whatever the mode
+                    SimulationOptions portfolioOptions = options != null ? options : new SimulationOptions();
+                    Portfolio equalWeighted = equalWeightedPortfolio(portfolio);
+                    SimulationResult result = simulationEngine.simulatePortfolio(amount, years, equalWeighted,
+                            portfolioOptions.getPathCount(), portfolioOptions.getSeed());
+                    publish(result);
+                    return result;
+                }
+
+                if (options == null || !options.requiresPaths()) {
+                    SimulationResult result = options == null
+                            ? simulationEngine.simulateInvestment(amount, years, investment)
+                            : simulationEngine.simulateBands(amount, years, investment, options);
+                    publish(result);
+                    return result;
+                }
+
+                // Cancelled while queued: don't spend a batch on a run nobody will see
+                if (isCancelled()) return null;
+
+                if (options.isAdaptive()) {
+                    // Batches double in size; the final result adds why the run stopped
+                    long start = System.nanoTime();
+                    SimulationResult result = simulationEngine.simulateAdaptive(amount, years, investment, options, run -> {
+                        publish(run.snapshot());
+                        long budget = options.getTimeBudgetMillis() * 1_000_000L;
+                        setProgress(budget > 0 ? (int) Math.min(100, (System.nanoTime() - start) * 100 / budget)
+                                : run.getCompletedPaths() * 100 / run.getPathCount());
+                        return !isCancelled();
+                    });
+                    publish(result);
+                    return result;
+                }
+
+                SimulationEngine.MonteCarloRun run = simulationEngine.startMonteCarlo(amount, years, investment,
+                        options.getPathCount(), options.getSeed(), options.getVarianceReduction());
+                int batchSize = Math.max(1, run.getPathCount() / PROGRESS_BATCHES);
+                SimulationResult snapshot;
+                // A run served from the cache is complete before its first batch
+                do {
+                    run.runBatch(batchSize);
+                    snapshot = run.snapshot();
+                    publish(snapshot);
+                    setProgress(run.getCompletedPaths() * 100 / run.getPathCount());
+                } while (!run.isComplete() && !isCancelled());
+                return snapshot;
+            }
+
+            @Override
+            protected void process(List<SimulationResult> chunks) {
+                if (isCancelled()) return;
+
+                // Only the newest partial result matters
+                currentResult = chunks.get(chunks.size() - 1);
+                if (displayed) {
+                    updateResults();
+                } else {
+                    displayResults();
+                    displayed = true;
+                }
+            }
+
+            @Override
+            protected void done() {
+                // A newer run has taken over the progress bar
+                if (simulationWorker != this) return;
+
+                progressBar.setVisible(false);
+                if (isCancelled()) return;
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    JOptionPane.showMessageDialog(SimulationPanel.this, "Error running simulation: " + e.getCause(),
+                            "Simulation Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }
     }
 }
\ No newline at end of file
@@ -3,9 +3,18 @@ import java.util.*; /**
  */
 public class MarketDataService {
     private List<Investment> investments;
-    private final Random random = new Random();
+    private final RandomStreams priceStreams;
+    // One generator per investment, only used from the price simulation timer thread
+    private final Map<Integer, SplittableRandom> priceRandoms = new HashMap<>();
 
     public MarketDataService() {
+        this(RandomStreams.randomSeed());
+    }
+
+    // A fixed seed replays the same simulated price moves
+    public MarketDataService(long seed) {
+        this.priceStreams = new RandomStreams(seed);
+
         // Initialize with some sample investments
         investments = new ArrayList<>();
         investments.add(new Investment(1, "Apple Inc.", "AAPL", 170.50, "Technology"));
@@ -41,6 +50,8 @@ public class MarketDataService {
 
     private void updatePrices() {
         for (Investment investment : investments) {
+            SplittableRandom random = priceRandoms.computeIfAbsent(investment.getId(), priceStreams::stream);
+
             // Simulate price changes (between -3% and +3%)
             double changePercent = (random.nextDouble() * 6) - 3;
             double newPrice = investment.getCurrentPrice() * (1 + (changePercent / 100));
@@ -0,0 +1,47 @@
+import java.util.SplittableRandom;
+
+/**
+ * Reproducible random streams derived from a single master seed.
+ * Stream i depends only on the master seed and i, so every path or worker can own
+ * its stream and a run gives the same numbers whatever thread or batch consumes it.
+ */
+class RandomStreams {
+    static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long masterSeed;
+
+    public RandomStreams(long masterSeed) {
+        this.masterSeed = masterSeed;
+    }
+
+    public static long randomSeed() {
+        return new SplittableRandom().nextLong();
+    }
+
+    public long getMasterSeed() {
+        return masterSeed;
+    }
+
+    // Independent generator for stream 'index'. Not thread-safe: use it from one thread only.
+    public SplittableRandom stream(long index) {
+        return new SplittableRandom(streamSeed(index));
+    }
+
+    // Seed of stream 'index', for generators that step SplitMix64 themselves
+    // (state += GOLDEN_GAMMA, output mix64(state)), e.g. one vector lane per stream
+    long streamSeed(long index) {
+        return mix64(masterSeed + GOLDEN_GAMMA * (index + 1));
+    }
+
+    // A family of streams keyed by 'index', e.g. one family per investment
+    public RandomStreams substreams(long index) {
+        return new RandomStreams(mix64(~masterSeed + GOLDEN_GAMMA * (index + 1)));
+    }
+
+    // SplitMix64 finalizer: spreads nearby inputs over the whole seed space
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,11 +1,27 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
 import java.util.Timer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.sql.*;
 
 /**
@@ -198,15 +214,7 @@ class UserDAO {
         try (Connection conn = dbManager.getConnection();
              Statement stmt = conn.createStatement()) {
 
-            // إنشاء جدول المستخدمين إذا لم يكن موجوداً
-            String createUserTable =
-                    "CREATE TABLE IF NOT EXISTS users (" +
-                            "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                            "name TEXT NOT NULL," +
-                            "email TEXT UNIQUE NOT NULL," +
-                            "notification_preference TEXT DEFAULT 'ALL'" +
-                            ");";
-            stmt.execute(createUserTable);
+            // الجدول نفسه يُنشأ بترحيلات DatabaseManager
 
             // إدخال بيانات نموذجية إذا كان الجدول فارغاً
             if (stmt.executeQuery("SELECT COUNT(*) FROM users").getInt(1) == 0) {
@@ -308,56 +316,46 @@ class UserDAO {
 
 // DAO للإشعارات
 class NotificationDAO {
-    private final DatabaseManager dbManager;
+    private static final String INSERT_SQL =
+            "INSERT INTO notifications (user_id, title, message, type, priority, ts, read) VALUES ";
+    private static final String ROW_PLACEHOLDERS = "(?, ?, ?, ?, ?, ?, ?)";
+    private static final int COLUMNS = 7;
+    // 100 صف × 7 معاملات أقل من حد SQLite القديم البالغ 999 معاملاً
+    private static final int ROWS_PER_INSERT = 100;
+    private static final String FULL_BATCH_INSERT_SQL = multiRowInsertSql(ROWS_PER_INSERT);
 
-    public NotificationDAO() {
-        this.dbManager = DatabaseManager.getInstance();
-        initializeNotificationTable();
-    }
+    private static final NotificationPriority[] PRIORITIES = NotificationPriority.values();
 
-    private void initializeNotificationTable() {
-        try (Connection conn = dbManager.getConnection();
-             Statement stmt = conn.createStatement()) {
+    private final DatabaseManager dbManager;
 
-            // إنشاء جدول الإشعارات إذا لم يكن موجوداً
-            String createNotificationTable =
-                    "CREATE TABLE IF NOT EXISTS notifications (" +
-                            "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                            "user_id INTEGER NOT NULL," +
-                            "title TEXT NOT NULL," +
-                            "message TEXT NOT NULL," +
-                            "type TEXT NOT NULL," +
-                            "priority TEXT NOT NULL," +
-                            "timestamp TEXT NOT NULL," +
-                            "read INTEGER DEFAULT 0," +
-                            "FOREIGN KEY (user_id) REFERENCES users(id)" +
-                            ");";
-            stmt.execute(createNotificationTable);
+    // نسخة في الذاكرة من notification_counts: لكل مستخدم عدد غير المقروء بترتيب NotificationPriority.
+    // يُقرأ المستخدم من الجدول عند أول طلب، ثم تُطبَّق عليه تغييرات كل كتابة بعد الـ commit
+    private final ConcurrentHashMap<Integer, AtomicIntegerArray> unreadCounts = new ConcurrentHashMap<>();
+    // الكتابات الجارية وعدّاد يزداد مع بدء كل كتابة؛ القراءة من الجدول التي تتزامن مع كتابة
+    // لا تُحفظ في الذاكرة، لأنها قد ترى الكتابة ثم تُطبَّق عليها تغييراتها مرة ثانية
+    private final AtomicInteger writesInFlight = new AtomicInteger();
+    private final AtomicLong writeEpoch = new AtomicLong();
 
-        } catch (SQLException e) {
-            System.err.println("Error initializing notification table: " + e.getMessage());
-            e.printStackTrace();
-        }
+    // جدول الإشعارات وفهارسه تُنشأ بترحيلات DatabaseManager
+    public NotificationDAO() {
+        this.dbManager = DatabaseManager.getInstance();
     }
 
     public boolean saveNotification(Notification notification) {
-        String sql = "INSERT INTO notifications (user_id, title, message, type, priority, timestamp, read) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?)";
+        String sql = INSERT_SQL + ROW_PLACEHOLDERS;
 
+        beginCountedWrite();
         try (Connection conn = dbManager.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
-            pstmt.setInt(1, notification.getUserId());
-            pstmt.setString(2, notification.getTitle());
-            pstmt.setString(3, notification.getMessage());
-            pstmt.setString(4, notification.getType().name());
-            pstmt.setString(5, notification.getPriority().name());
-            pstmt.setString(6, notification.getTimestamp().toString());
-            pstmt.setInt(7, notification.isRead() ? 1 : 0);
+            bindNotification(pstmt, 0, notification);
 
             int affectedRows = pstmt.executeUpdate();
 
             if (affectedRows > 0) {
+                if (!notification.isRead()) {
+                    adjustUnreadCount(notification.getUserId(), notification.getPriority(), 1);
+                }
                 try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
                     if (generatedKeys.next()) {
                         notification.setId(generatedKeys.getInt(1));
@@ -371,12 +369,119 @@ class NotificationDAO {
             System.err.println("Error saving notification: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            endCountedWrite();
+        }
+    }
+
+    // حفظ دفعة من الإشعارات في معاملة واحدة باستخدام INSERT متعدد الصفوف.
+    // تُعيَّن المعرفات للإشعارات فقط بعد نجاح الـ commit، وعند الفشل لا يُحفظ أي منها
+    public boolean saveNotifications(List<Notification> notifications) {
+        if (notifications.isEmpty()) return true;
+        int[] ids = new int[notifications.size()];
+
+        beginCountedWrite();
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (int start = 0; start < notifications.size(); start += ROWS_PER_INSERT) {
+                    int rows = Math.min(ROWS_PER_INSERT, notifications.size() - start);
+                    String sql = rows == ROWS_PER_INSERT ? FULL_BATCH_INSERT_SQL : multiRowInsertSql(rows);
+                    try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                        for (int k = 0; k < rows; k++) {
+                            bindNotification(pstmt, k * COLUMNS, notifications.get(start + k));
+                        }
+                        pstmt.executeUpdate();
+                    }
+
+                    // صفوف INSERT واحد تأخذ معرفات متتالية تنتهي بـ last_insert_rowid
+                    try (Statement stmt = conn.createStatement();
+                         ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
+                        rs.next();
+                        int lastId = rs.getInt(1);
+                        for (int k = 0; k < rows; k++) {
+                            ids[start + k] = lastId - rows + 1 + k;
+                        }
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            for (Notification notification : notifications) {
+                if (!notification.isRead()) {
+                    adjustUnreadCount(notification.getUserId(), notification.getPriority(), 1);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error saving notification batch: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        } finally {
+            endCountedWrite();
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            notifications.get(i).setId(ids[i]);
+        }
+        return true;
+    }
+
+    private static String multiRowInsertSql(int rows) {
+        StringBuilder sql = new StringBuilder(INSERT_SQL.length() + rows * (ROW_PLACEHOLDERS.length() + 2));
+        sql.append(INSERT_SQL);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(ROW_PLACEHOLDERS);
         }
+        return sql.toString();
+    }
+
+    // ربط أعمدة إشعار واحد بدءاً من المعامل offset + 1
+    static void bindNotification(PreparedStatement pstmt, int offset, Notification notification)
+            throws SQLException {
+        pstmt.setInt(offset + 1, notification.getUserId());
+        pstmt.setString(offset + 2, notification.getTitle());
+        pstmt.setString(offset + 3, notification.getMessage());
+        pstmt.setString(offset + 4, notification.getType().name());
+        pstmt.setString(offset + 5, notification.getPriority().name());
+        pstmt.setLong(offset + 6, toEpochMillis(notification.getTimestamp()));
+        pstmt.setInt(offset + 7, notification.isRead() ? 1 : 0);
+    }
+
+    // الطوابع الزمنية تُخزَّن كميلي ثانية منذ epoch بتوقيت الجهاز، فالفرز والمقارنة على أعداد صحيحة
+    static long toEpochMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    static LocalDateTime fromEpochMillis(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    // بناء إشعار من الصف الحالي
+    static Notification readNotification(ResultSet rs) throws SQLException {
+        Notification notification = new Notification(
+                rs.getInt("id"),
+                rs.getInt("user_id"),
+                rs.getString("title"),
+                rs.getString("message"),
+                NotificationType.valueOf(rs.getString("type")),
+                NotificationPriority.valueOf(rs.getString("priority"))
+        );
+
+        notification.setTimestamp(fromEpochMillis(rs.getLong("ts")));
+        notification.setRead(rs.getInt("read") == 1);
+        return notification;
     }
 
     public List<Notification> getNotificationsByUserId(int userId) {
         List<Notification> notifications = new ArrayList<>();
-        String sql = "SELECT * FROM notifications WHERE user_id = ? ORDER BY timestamp DESC";
+        // يستخدم الفهرس (user_id, ts DESC, id DESC) فلا حاجة لفرز
+        String sql = "SELECT * FROM notifications WHERE user_id = ? ORDER BY ts DESC, id DESC";
 
         try (Connection conn = dbManager.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -385,48 +490,667 @@ class NotificationDAO {
             ResultSet rs = pstmt.executeQuery();
 
             while (rs.next()) {
-                Notification notification = new Notification(
-                        rs.getInt("id"),
-                        rs.getInt("user_id"),
-                        rs.getString("title"),
-                        rs.getString("message"),
-                        NotificationType.valueOf(rs.getString("type")),
-                        NotificationPriority.valueOf(rs.getString("priority"))
-                );
+                notifications.add(readNotification(rs));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error fetching notifications: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return notifications;
+    }
+
+    // صفحة من صندوق الوارد بترتيب تنازلي، تبدأ بعد الإشعار (beforeTs, beforeId) مباشرة.
+    // الترقيم بالمفتاح يقفز إلى موضع الصفحة في الفهرس، فتكلفة أي صفحة ثابتة مهما بَعُدت،
+    // بخلاف OFFSET الذي يمر على كل الصفوف السابقة. للصفحة الأولى: Long.MAX_VALUE و Integer.MAX_VALUE
+    public List<Notification> getNotificationsPage(int userId, long beforeTs, int beforeId, int limit) {
+        List<Notification> notifications = new ArrayList<>(limit);
+        String sql = "SELECT * FROM notifications WHERE user_id = ? AND (ts, id) < (?, ?) " +
+                "ORDER BY ts DESC, id DESC LIMIT ?";
 
-                notification.setTimestamp(LocalDateTime.parse(rs.getString("timestamp")));
-                notification.setRead(rs.getInt("read") == 1);
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-                notifications.add(notification);
+            pstmt.setInt(1, userId);
+            pstmt.setLong(2, beforeTs);
+            pstmt.setInt(3, beforeId);
+            pstmt.setInt(4, limit);
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                notifications.add(readNotification(rs));
             }
         } catch (SQLException e) {
-            System.err.println("Error fetching notifications: " + e.getMessage());
+            System.err.println("Error fetching notification page: " + e.getMessage());
             e.printStackTrace();
         }
 
         return notifications;
     }
 
+    // يعيد true إذا كان الإشعار موجوداً. التحديث أولاً يحجز الكتابة قبل القراءة في المعاملة،
+    // ولا يغيّر إلا إشعاراً غير مقروء، فلا يُنقص العداد مرتين لنفس الإشعار
     public boolean markAsRead(int notificationId) {
-        String sql = "UPDATE notifications SET read = 1 WHERE id = ?";
+        String updateSql = "UPDATE notifications SET read = 1 WHERE id = ? AND read IS NOT 1";
+        String selectSql = "SELECT user_id, priority FROM notifications WHERE id = ?";
+
+        beginCountedWrite();
+        try (Connection conn = dbManager.getConnection()) {
+            boolean changed;
+            int userId;
+            NotificationPriority priority;
+
+            conn.setAutoCommit(false);
+            try (PreparedStatement update = conn.prepareStatement(updateSql);
+                 PreparedStatement select = conn.prepareStatement(selectSql)) {
+                update.setInt(1, notificationId);
+                changed = update.executeUpdate() > 0;
+
+                select.setInt(1, notificationId);
+                try (ResultSet rs = select.executeQuery()) {
+                    if (!rs.next()) {
+                        conn.rollback();
+                        return false;
+                    }
+                    userId = rs.getInt("user_id");
+                    priority = NotificationPriority.valueOf(rs.getString("priority"));
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            if (changed) {
+                adjustUnreadCount(userId, priority, -1);
+            }
+            return true;
 
+        } catch (SQLException e) {
+            System.err.println("Error marking notification as read: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        } finally {
+            endCountedWrite();
+        }
+    }
+
+    // وضع علامة "مقروء" على كل إشعارات المستخدم بعبارة UPDATE واحدة؛ يعيد عدد ما تغيّر،
+    // أو 1- إذا فشل التحديث (وكذلك العمليات الجماعية التالية)
+    public int markAllAsRead(int userId) {
+        return markAsReadUpTo(userId, Long.MAX_VALUE);
+    }
+
+    // كل إشعارات المستخدم حتى الوقت المعطى (ضمناً)، بمسح نطاق في الفهرس (user_id, ts, id)
+    public int markAsReadUpTo(int userId, LocalDateTime upTo) {
+        return markAsReadUpTo(userId, toEpochMillis(upTo));
+    }
+
+    private int markAsReadUpTo(int userId, long upToTs) {
+        String sql = "UPDATE notifications SET read = 1 WHERE user_id = ? AND ts <= ? AND read IS NOT 1";
+
+        beginCountedWrite();
         try (Connection conn = dbManager.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setInt(1, notificationId);
-            return pstmt.executeUpdate() > 0;
+            pstmt.setInt(1, userId);
+            pstmt.setLong(2, upToTs);
+            int changed = pstmt.executeUpdate();
+            if (changed > 0) {
+                invalidateUnreadCounts(userId);
+            }
+            return changed;
 
         } catch (SQLException e) {
-            System.err.println("Error marking notification as read: " + e.getMessage());
+            System.err.println("Error marking notifications as read: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        } finally {
+            endCountedWrite();
+        }
+    }
+
+    // إشعارات المستخدم ذات المعرفات المعطاة، في معاملة واحدة بعبارة لكل ROWS_PER_INSERT معرفاً.
+    // المعرفات التي لا تخص المستخدم تُتجاهل
+    public int markAsRead(int userId, Collection<Integer> notificationIds) {
+        if (notificationIds.isEmpty()) return 0;
+        List<Integer> ids = new ArrayList<>(notificationIds);
+        int changed = 0;
+
+        beginCountedWrite();
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (int start = 0; start < ids.size(); start += ROWS_PER_INSERT) {
+                    int count = Math.min(ROWS_PER_INSERT, ids.size() - start);
+                    String sql = "UPDATE notifications SET read = 1 WHERE user_id = ? AND read IS NOT 1 AND id IN " +
+                            placeholders(count);
+
+                    try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                        pstmt.setInt(1, userId);
+                        for (int i = 0; i < count; i++) {
+                            pstmt.setInt(i + 2, ids.get(start + i));
+                        }
+                        changed += pstmt.executeUpdate();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            if (changed > 0) {
+                invalidateUnreadCounts(userId);
+            }
+            return changed;
+
+        } catch (SQLException e) {
+            System.err.println("Error marking notifications as read: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        } finally {
+            endCountedWrite();
+        }
+    }
+
+    // إشعارات تستحق الأرشفة بترتيب تصاعدي بعد (afterTs, afterId): كل ما هو أقدم من allBefore،
+    // والمقروء الأقدم من readBefore. يستخدم الفهرس (ts)، فكل دفعة تكمل من حيث انتهت سابقتها
+    public List<Notification> getArchiveCandidates(long allBefore, long readBefore,
+                                                   long afterTs, int afterId, int limit) {
+        List<Notification> notifications = new ArrayList<>(limit);
+        String sql = "SELECT * FROM notifications WHERE ts < ? AND (ts < ? OR read IS 1) AND (ts, id) > (?, ?) " +
+                "ORDER BY ts, id LIMIT ?";
+
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, Math.max(allBefore, readBefore));
+            pstmt.setLong(2, allBefore);
+            pstmt.setLong(3, afterTs);
+            pstmt.setInt(4, afterId);
+            pstmt.setInt(5, limit);
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                notifications.add(readNotification(rs));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error fetching notifications to archive: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return notifications;
+    }
+
+    // حذف إشعارات نُسخت إلى الأرشيف، في معاملة واحدة. يُحذف الإشعار فقط إذا بقيت حالة قراءته
+    // كما نُسخت، وإلا بقي ليُنسخ من جديد في الدورة التالية. يعيد عدد المحذوف
+    public int deleteArchived(List<Notification> notifications) {
+        List<Integer> readIds = new ArrayList<>();
+        List<Integer> unreadIds = new ArrayList<>();
+        Set<Integer> unreadUsers = new HashSet<>();
+        for (Notification notification : notifications) {
+            if (notification.isRead()) {
+                readIds.add(notification.getId());
+            } else {
+                unreadIds.add(notification.getId());
+                unreadUsers.add(notification.getUserId());
+            }
+        }
+        int deleted = 0;
+
+        beginCountedWrite();
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                deleted += deleteByIds(conn, "DELETE FROM notifications WHERE read IS 1 AND id IN ", readIds);
+                deleted += deleteByIds(conn, "DELETE FROM notifications WHERE read IS NOT 1 AND id IN ", unreadIds);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            // حذف غير المقروء يغيّر عدادات أصحابه
+            for (int userId : unreadUsers) {
+                invalidateUnreadCounts(userId);
+            }
+            return deleted;
+
+        } catch (SQLException e) {
+            System.err.println("Error deleting archived notifications: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        } finally {
+            endCountedWrite();
+        }
+    }
+
+    private static int deleteByIds(Connection conn, String sqlPrefix, List<Integer> ids) throws SQLException {
+        int deleted = 0;
+        for (int start = 0; start < ids.size(); start += ROWS_PER_INSERT) {
+            int count = Math.min(ROWS_PER_INSERT, ids.size() - start);
+            try (PreparedStatement pstmt = conn.prepareStatement(sqlPrefix + placeholders(count))) {
+                for (int i = 0; i < count; i++) {
+                    pstmt.setInt(i + 1, ids.get(start + i));
+                }
+                deleted += pstmt.executeUpdate();
+            }
+        }
+        return deleted;
+    }
+
+    // "(?, ?, ...)" بعدد المعاملات المعطى، لشروط IN
+    private static String placeholders(int count) {
+        StringBuilder sql = new StringBuilder(count * 3 + 1).append('(');
+        for (int i = 0; i < count; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(')').toString();
+    }
+
+    // عدد الإشعارات غير المقروءة للمستخدم بكل أولوية، مفهرسة بترتيب NotificationPriority.
+    // من الذاكرة مباشرة، أو بقراءة صفوف المستخدم من notification_counts عند أول طلب
+    public int[] getUnreadCounts(int userId) {
+        AtomicIntegerArray counts = unreadCounts.get(userId);
+        if (counts == null) {
+            counts = loadUnreadCounts(userId);
+        }
+        int[] result = new int[PRIORITIES.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    private AtomicIntegerArray loadUnreadCounts(int userId) {
+        long epoch = writeEpoch.get();
+        boolean quiet = writesInFlight.get() == 0;
+        AtomicIntegerArray counts = new AtomicIntegerArray(PRIORITIES.length);
+        String sql = "SELECT priority, unread FROM notification_counts WHERE user_id = ?";
+
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, userId);
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                counts.set(NotificationPriority.valueOf(rs.getString("priority")).ordinal(), rs.getInt("unread"));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error fetching unread counts: " + e.getMessage());
+            e.printStackTrace();
+            return counts;
+        }
+
+        if (!quiet) return counts;
+        AtomicIntegerArray existing = unreadCounts.putIfAbsent(userId, counts);
+        if (existing != null) return existing;
+        // كتابة بدأت بعد القراءة قد تكون فاتتها القيمة المضافة للتو؛ تُزال لتُقرأ من جديد
+        if (writeEpoch.get() != epoch) {
+            unreadCounts.remove(userId, counts);
+        }
+        return counts;
+    }
+
+    private void beginCountedWrite() {
+        writesInFlight.incrementAndGet();
+        writeEpoch.incrementAndGet();
+    }
+
+    private void endCountedWrite() {
+        writesInFlight.decrementAndGet();
+    }
+
+    // يُستدعى بعد الـ commit فقط، ولمستخدم محمّل في الذاكرة فقط؛ غيره يُقرأ من الجدول عند طلبه
+    private void adjustUnreadCount(int userId, NotificationPriority priority, int delta) {
+        AtomicIntegerArray counts = unreadCounts.get(userId);
+        if (counts != null) {
+            counts.addAndGet(priority.ordinal(), delta);
+        }
+    }
+
+    // بعد تغيير جماعي لا تُعرف الفروق لكل أولوية، فيُقرأ المستخدم من notification_counts عند طلبه التالي
+    private void invalidateUnreadCounts(int userId) {
+        unreadCounts.remove(userId);
+    }
+}
+
+// DAO للإشعارات المؤرشفة في قاعدة الأرشيف المنفصلة
+class NotificationArchiveDAO {
+    private static final String INSERT_SQL =
+            "INSERT OR REPLACE INTO notifications (id, user_id, title, message, type, priority, ts, read, archived_at) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final DatabaseManager dbManager;
+
+    public NotificationArchiveDAO() {
+        this.dbManager = DatabaseManager.getInstance();
+    }
+
+    // نسخ دفعة إلى الأرشيف في معاملة واحدة بمعرفاتها الأصلية؛ الاستبدال يجعل إعادة نسخ إشعار
+    // لم يُحذف من الجدول الرئيسي آمنة
+    public boolean saveNotifications(List<Notification> notifications, long archivedAt) {
+        if (notifications.isEmpty()) return true;
+
+        try (Connection conn = dbManager.getArchiveConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(INSERT_SQL)) {
+                for (Notification notification : notifications) {
+                    pstmt.setInt(1, notification.getId());
+                    NotificationDAO.bindNotification(pstmt, 1, notification);
+                    pstmt.setLong(9, archivedAt);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            return true;
+
+        } catch (SQLException e) {
+            System.err.println("Error archiving notifications: " + e.getMessage());
             e.printStackTrace();
             return false;
         }
     }
+
+    // صفحة من الإشعارات المؤرشفة للمستخدم، بنفس الترقيم بالمفتاح في NotificationDAO.getNotificationsPage
+    public List<Notification> getNotificationsPage(int userId, long beforeTs, int beforeId, int limit) {
+        List<Notification> notifications = new ArrayList<>(limit);
+        String sql = "SELECT * FROM notifications WHERE user_id = ? AND (ts, id) < (?, ?) " +
+                "ORDER BY ts DESC, id DESC LIMIT ?";
+
+        try (Connection conn = dbManager.getArchiveConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, userId);
+            pstmt.setLong(2, beforeTs);
+            pstmt.setInt(3, beforeId);
+            pstmt.setInt(4, limit);
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                notifications.add(NotificationDAO.readNotification(rs));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error fetching archived notifications: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return notifications;
+    }
+}
+
+// سياسة الاحتفاظ: تنقل إلى قاعدة الأرشيف كل إشعار أقدم من retentionDays، وكل إشعار مقروء أقدم من
+// readRetentionDays (0 أو أقل يعطّل القاعدة). تعمل في خيط خلفي على دفعات محدودة، كل منها معاملة
+// قصيرة تليها استراحة، فلا تحجز قاعدة البيانات عن الكاتب المؤجل إلا لحظات.
+// القيم تُقرأ من خصائص النظام notifications.retention.days و notifications.retention.readDays
+// و notifications.archive.chunkSize و notifications.archive.pauseMillis و notifications.archive.intervalMinutes
+class NotificationArchiver {
+    static final int DEFAULT_RETENTION_DAYS = 90;
+    static final int DEFAULT_READ_RETENTION_DAYS = 30;
+    static final int DEFAULT_CHUNK_SIZE = 500;
+    static final long DEFAULT_PAUSE_MILLIS = 50;
+    static final long DEFAULT_INTERVAL_MINUTES = 60;
+
+    private final NotificationDAO notificationDAO;
+    private final NotificationArchiveDAO archiveDAO;
+    private final int retentionDays;
+    private final int readRetentionDays;
+    private final int chunkSize;
+    private final long pauseMillis;
+    private final long intervalMillis;
+    private final Timer timer = new Timer("notification-archiver", true);
+    private volatile boolean running = true;
+
+    public NotificationArchiver(NotificationDAO notificationDAO, NotificationArchiveDAO archiveDAO,
+                                int retentionDays, int readRetentionDays, int chunkSize,
+                                long pauseMillis, long intervalMinutes) {
+        this.notificationDAO = notificationDAO;
+        this.archiveDAO = archiveDAO;
+        this.retentionDays = retentionDays;
+        this.readRetentionDays = readRetentionDays;
+        this.chunkSize = chunkSize;
+        this.pauseMillis = pauseMillis;
+        this.intervalMillis = TimeUnit.MINUTES.toMillis(intervalMinutes);
+    }
+
+    public static NotificationArchiver fromSystemProperties(NotificationDAO notificationDAO,
+                                                            NotificationArchiveDAO archiveDAO) {
+        return new NotificationArchiver(notificationDAO, archiveDAO,
+                Integer.getInteger("notifications.retention.days", DEFAULT_RETENTION_DAYS),
+                Integer.getInteger("notifications.retention.readDays", DEFAULT_READ_RETENTION_DAYS),
+                Integer.getInteger("notifications.archive.chunkSize", DEFAULT_CHUNK_SIZE),
+                Long.getLong("notifications.archive.pauseMillis", DEFAULT_PAUSE_MILLIS),
+                Long.getLong("notifications.archive.intervalMinutes", DEFAULT_INTERVAL_MINUTES));
+    }
+
+    // جدولة الأرشفة الدورية؛ أول دورة بعد دقيقة حتى لا تزاحم بدء التطبيق
+    public void start() {
+        if ((retentionDays <= 0 && readRetentionDays <= 0) || intervalMillis <= 0) return;
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                int archived = archiveExpired();
+                if (archived > 0) {
+                    System.err.println("Archived " + archived + " notifications");
+                }
+            }
+        }, Math.min(intervalMillis, 60_000), intervalMillis);
+    }
+
+    // دورة أرشفة كاملة بدفعات من chunkSize؛ يعيد عدد الإشعارات المنقولة
+    public int archiveExpired() {
+        long now = System.currentTimeMillis();
+        long allBefore = retentionDays > 0 ? now - TimeUnit.DAYS.toMillis(retentionDays) : Long.MIN_VALUE;
+        long readBefore = readRetentionDays > 0 ? now - TimeUnit.DAYS.toMillis(readRetentionDays) : Long.MIN_VALUE;
+        if (allBefore == Long.MIN_VALUE && readBefore == Long.MIN_VALUE) return 0;
+
+        long afterTs = Long.MIN_VALUE;
+        int afterId = Integer.MIN_VALUE;
+        int archived = 0;
+        while (running) {
+            List<Notification> chunk = notificationDAO.getArchiveCandidates(
+                    allBefore, readBefore, afterTs, afterId, chunkSize);
+            if (chunk.isEmpty()) break;
+            Notification last = chunk.get(chunk.size() - 1);
+            afterTs = NotificationDAO.toEpochMillis(last.getTimestamp());
+            afterId = last.getId();
+
+            // النسخ أولاً: إن فشل الحذف بعده يبقى الإشعار في القاعدتين ويُنقل في الدورة التالية
+            if (!archiveDAO.saveNotifications(chunk, now)) break;
+            archived += notificationDAO.deleteArchived(chunk);
+            if (chunk.size() < chunkSize) break;
+
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return archived;
+    }
+
+    // إيقاف الجدولة؛ الدورة الجارية تتوقف بعد الدفعة الحالية
+    public void close() {
+        running = false;
+        timer.cancel();
+    }
 }
 
 // واجهة للاستماع للإشعارات
 interface NotificationListener {
     void onNotificationReceived(Notification notification);
+
+    // دفعة إشعارات محفوظة معاً؛ يمكن للمستمع تجاوزها لمعالجة الدفعة مرة واحدة
+    default void onNotificationsReceived(List<Notification> notifications) {
+        for (Notification notification : notifications) {
+            onNotificationReceived(notification);
+        }
+    }
+}
+
+// كاتب مؤجل (write-behind): يجمع الإشعارات في طابور محدود ويحفظها في خيط خلفي على دفعات،
+// عند امتلاء الدفعة أو بعد مهلة قصيرة، بمعاملة واحدة بدلاً من commit لكل إشعار.
+// يُستدعى onSaved بعد حفظ الدفعة فعلياً، والإشعارات تحمل معرفاتها. الدفعة التي فشل حفظها
+// تبقى وتُعاد محاولتها قبل أي إشعار أحدث منها
+class NotificationWriter {
+    static final int DEFAULT_BATCH_SIZE = 1000;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 250;
+    static final int QUEUE_CAPACITY = 100_000;
+    // مهلة الانتظار في الطابور، وهي أيضاً أقصى تأخير لملاحظة close()
+    static final long POLL_MILLIS = 100;
+    static final long RETRY_DELAY_MILLIS = 1000;
+    // بعد close() تُترك الدفعة إذا فشل حفظها هذا العدد من المرات، حتى لا يعلق الإيقاف
+    // إلى الأبد عندما تكون قاعدة البيانات غير متاحة
+    static final int CLOSE_ATTEMPTS = 3;
+
+    private final NotificationDAO notificationDAO;
+    private final Consumer<List<Notification>> onSaved;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Notification> queue =
+            new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread thread;
+    private volatile boolean running = true;
+    // الإضافة تأخذ قفل القراءة وclose() قفل الكتابة، فلا يُضاف إشعار بعد أن يرى الكاتب
+    // التوقف ويفرغ الطابور ويخرج
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    public NotificationWriter(NotificationDAO notificationDAO, Consumer<List<Notification>> onSaved) {
+        this(notificationDAO, onSaved, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    public NotificationWriter(NotificationDAO notificationDAO, Consumer<List<Notification>> onSaved,
+                              int batchSize, long maxDelayMillis) {
+        this.notificationDAO = notificationDAO;
+        this.onSaved = onSaved;
+        this.batchSize = batchSize;
+        this.maxDelayNanos = maxDelayMillis * 1_000_000;
+        this.thread = new Thread(this::run, "notification-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // إضافة إشعار للحفظ؛ ينتظر إذا امتلأ الطابور حتى لا تنمو الذاكرة بلا حد.
+    // يعيد false دون إضافة شيء إذا أُغلق الكاتب
+    public boolean enqueue(Notification notification) throws InterruptedException {
+        closeLock.readLock().lock();
+        try {
+            if (!running) return false;
+            queue.put(notification);
+            return true;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    // إيقاف الكاتب بعد حفظ كل ما في الطابور. لا يُقاطَع الخيط: المقاطعة أثناء الحفظ
+    // تُفشل طلب الاتصال من المجمع، فيلاحظ الخيط التوقف في دورة الانتظار التالية
+    public void close() {
+        // ينتظر أي إضافة جارية؛ خيط الكاتب يواصل التفريغ فلا تعلق إضافة على طابور ممتلئ
+        closeLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Notification> batch = new ArrayList<>(batchSize);
+        int failures = 0;
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            // دفعة فشل حفظها تُعاد كما هي، دون إضافة إشعارات أحدث إليها
+            if (batch.isEmpty()) {
+                collect(batch);
+                if (batch.isEmpty()) continue;
+            }
+
+            if (flush(batch)) {
+                failures = 0;
+                continue;
+            }
+            failures++;
+            if (!running && failures >= CLOSE_ATTEMPTS) {
+                System.err.println("Dropping " + batch.size() + " notifications after " + failures +
+                        " failed attempts to save them during shutdown");
+                batch.clear();
+                failures = 0;
+                continue;
+            }
+            pause(RETRY_DELAY_MILLIS);
+        }
+    }
+
+    // انتظار أول إشعار، ثم جمع المزيد حتى تمتلئ الدفعة أو تنتهي المهلة
+    private void collect(List<Notification> batch) {
+        try {
+            Notification first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (first == null) return;
+            batch.add(first);
+
+            long deadline = System.nanoTime() + maxDelayNanos;
+            while (batch.size() < batchSize) {
+                queue.drainTo(batch, batchSize - batch.size());
+                long remaining = deadline - System.nanoTime();
+                if (batch.size() >= batchSize || remaining <= 0 || !running) break;
+                Notification next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) break;
+                batch.add(next);
+            }
+        } catch (InterruptedException e) {
+            // لا أحد يقاطع هذا الخيط عادةً؛ يُحفظ ما جُمع ويستمر الكاتب حتى close()
+            queue.drainTo(batch, batchSize - batch.size());
+        }
+    }
+
+    // يعيد false ويُبقي الدفعة إذا فشل الحفظ؛ المعرفات لا تُعيَّن إلا بعد commit ناجح،
+    // فإعادة المحاولة آمنة
+    private boolean flush(List<Notification> batch) {
+        List<Notification> saved = new ArrayList<>(batch);
+        if (!notificationDAO.saveNotifications(saved)) {
+            return false;
+        }
+        batch.clear();
+        try {
+            onSaved.accept(saved);
+        } catch (RuntimeException e) {
+            System.err.println("Error delivering saved notifications: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // المحاولة التالية تبدأ مبكراً فقط
+        }
+    }
 }
 
 // خدمة الإشعارات: تراقب التغيرات وترسل الإشعارات
@@ -436,7 +1160,13 @@ class NotificationService {
     private final UserDAO userDAO;
     private final Timer timer;
     private final Random random = new Random();
-    private final List<NotificationListener> listeners = new ArrayList<>();
+    // تُستدعى من خيط الكاتب المؤجل ومن واجهة المستخدم، لذا قائمة آمنة للخيوط
+    private final List<NotificationListener> listeners = new CopyOnWriteArrayList<>();
+    private final NotificationWriter notificationWriter;
+    private final NotificationArchiveDAO archiveDAO;
+    private final NotificationArchiver archiver;
+    // المستخدمون حسب المعرف من آخر دورة مراقبة، لإرسال البريد بعد حفظ الدفعة
+    private volatile Map<Integer, User> usersById = new HashMap<>();
 
     // تخزين القيم السابقة للأسهم لاكتشاف التغيرات
     private final Map<Integer, Double> previousPrices = new HashMap<>();
@@ -445,6 +1175,9 @@ class NotificationService {
         this.marketDataService = marketDataService;
         this.notificationDAO = new NotificationDAO();
         this.userDAO = new UserDAO();
+        this.notificationWriter = new NotificationWriter(notificationDAO, this::onNotificationsSaved);
+        this.archiveDAO = new NotificationArchiveDAO();
+        this.archiver = NotificationArchiver.fromSystemProperties(notificationDAO, archiveDAO);
         this.timer = new Timer(true);
 
         // تخزين الأسعار الأولية
@@ -454,6 +1187,7 @@ class NotificationService {
 
         // بدء جدولة المراقبة (كل 10 ثوانٍ للعرض التوضيحي، في الواقع يمكن أن تكون أطول)
         timer.schedule(new MarketMonitorTask(), 5000, 10000);
+        archiver.start();
     }
 
     public void addListener(NotificationListener listener) {
@@ -464,9 +1198,19 @@ class NotificationService {
         listeners.remove(listener);
     }
 
-    private void notifyListeners(Notification notification) {
+    // تُستدعى من الكاتب المؤجل بعد حفظ الدفعة في قاعدة البيانات
+    private void onNotificationsSaved(List<Notification> notifications) {
         for (NotificationListener listener : listeners) {
-            listener.onNotificationReceived(notification);
+            listener.onNotificationsReceived(notifications);
+        }
+
+        // محاكاة إرسال بريد إلكتروني
+        Map<Integer, User> users = usersById;
+        for (Notification notification : notifications) {
+            User user = users.get(notification.getUserId());
+            if (user != null) {
+                sendEmailNotification(user, notification);
+            }
         }
     }
 
@@ -489,14 +1233,67 @@ class NotificationService {
         return notificationDAO.getNotificationsByUserId(userId);
     }
 
+    // صفحة من إشعارات المستخدم الأقدم من الإشعار المعطى؛ null للصفحة الأولى
+    public List<Notification> getUserNotificationsPage(int userId, Notification after, int limit) {
+        if (after == null) {
+            return notificationDAO.getNotificationsPage(userId, Long.MAX_VALUE, Integer.MAX_VALUE, limit);
+        }
+        return notificationDAO.getNotificationsPage(userId, NotificationDAO.toEpochMillis(after.getTimestamp()),
+                after.getId(), limit);
+    }
+
+    // صفحة من الإشعارات المؤرشفة للمستخدم، تُقرأ من قاعدة الأرشيف عند الطلب فقط؛ null للصفحة الأولى
+    public List<Notification> getArchivedNotificationsPage(int userId, Notification after, int limit) {
+        if (after == null) {
+            return archiveDAO.getNotificationsPage(userId, Long.MAX_VALUE, Integer.MAX_VALUE, limit);
+        }
+        return archiveDAO.getNotificationsPage(userId, NotificationDAO.toEpochMillis(after.getTimestamp()),
+                after.getId(), limit);
+    }
+
     // وضع علامة "مقروء" على الإشعار
     public boolean markNotificationAsRead(int notificationId) {
         return notificationDAO.markAsRead(notificationId);
     }
 
-    // إيقاف خدمة الإشعارات
+    // عمليات جماعية: كل منها عبارة أو معاملة واحدة، وتعيد عدد الإشعارات التي أصبحت مقروءة،
+    // أو 1- عند الفشل
+    public int markAllNotificationsAsRead(int userId) {
+        return notificationDAO.markAllAsRead(userId);
+    }
+
+    public int markNotificationsAsReadUpTo(int userId, LocalDateTime upTo) {
+        return notificationDAO.markAsReadUpTo(userId, upTo);
+    }
+
+    public int markNotificationsAsRead(int userId, Collection<Integer> notificationIds) {
+        return notificationDAO.markAsRead(userId, notificationIds);
+    }
+
+    // عدد الإشعارات غير المقروءة للمستخدم، من العدادات المحفوظة دون مسح الإشعارات
+    public int getUnreadCount(int userId) {
+        int total = 0;
+        for (int count : notificationDAO.getUnreadCounts(userId)) {
+            total += count;
+        }
+        return total;
+    }
+
+    public int getUnreadCount(int userId, NotificationPriority priority) {
+        return notificationDAO.getUnreadCounts(userId)[priority.ordinal()];
+    }
+
+    // إيقاف خدمة الإشعارات بعد حفظ الإشعارات المنتظرة
     public void shutdown() {
         timer.cancel();
+        archiver.close();
+        notificationWriter.close();
+    }
+
+    // محاكاة إرسال بريد إلكتروني (في التطبيق الحقيقي، سنستخدم خدمة بريد إلكتروني)
+    private void sendEmailNotification(User user, Notification notification) {
+        System.out.println("Sending email to " + user.getEmail() + ": " + notification.getTitle());
+        // هنا سيكون شيفرة الاتصال بخدمة البريد الإلكتروني
     }
 
     // مهمة مراقبة السوق
@@ -508,6 +1305,11 @@ class NotificationService {
 
             List<Investment> investments = marketDataService.getAllInvestments();
             List<User> users = userDAO.getAllUsers();
+            Map<Integer, User> byId = new HashMap<>();
+            for (User user : users) {
+                byId.put(user.getId(), user);
+            }
+            usersById = byId;
 
             for (Investment investment : investments) {
                 // تحقق ما إذا كان هناك تغير كبير في السعر (افتراضي للعرض)
@@ -530,13 +1332,13 @@ class NotificationService {
                                     Math.abs(priceChange) > 5 ? NotificationPriority.HIGH : NotificationPriority.MEDIUM
                             );
 
-                            // حفظ الإشعار في قاعدة البيانات
-                            if (notificationDAO.saveNotification(notification)) {
-                                // إشعار المستمعين (مثل واجهة المستخدم)
-                                notifyListeners(notification);
-
-                                // محاكاة إرسال بريد إلكتروني
-                                sendEmailNotification(user, notification);
+                            // إضافة الإشعار إلى طابور الحفظ؛ يُبلَّغ المستمعون ويُرسل البريد بعد حفظ الدفعة.
+                            // timer.cancel() لا ينتظر مهمة جارية، فقد تكون الخدمة أُوقفت أثناءها
+                            try {
+                                if (!notificationWriter.enqueue(notification)) return;
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return;
                             }
                         }
                     }
@@ -552,22 +1354,147 @@ class NotificationService {
             // 20% فرصة لإنشاء تنبيه كل مرة (للعرض فقط)
             return random.nextDouble() < 0.2;
         }
+    }
+}
+
+// List model for one user's inbox that loads pages on demand: the first page when a user is
+// set, and the next one whenever the list asks for a row near the end of what is loaded.
+// Pages are fetched off the event thread; all model changes happen on it.
+class NotificationListModel extends AbstractListModel<Notification> {
+    static final int PAGE_SIZE = 100;
+    // How close to the last loaded row a request triggers the next page
+    static final int PREFETCH_DISTANCE = 30;
+
+    private final NotificationService notificationService;
+    // Pages in inbox order, newest first
+    private final List<Notification> loaded = new ArrayList<>();
+    // Notifications received live since the user was set, oldest first, shown above the pages
+    private final List<Notification> received = new ArrayList<>();
+    private final Set<Integer> receivedIds = new HashSet<>();
+    private int userId = -1;
+    // Browsing the archive database instead of the live inbox
+    private boolean archived;
+    // Incremented when the user changes, so a page that arrives late is discarded
+    private int generation;
+    private boolean loading, exhausted;
+
+    public NotificationListModel(NotificationService notificationService) {
+        this.notificationService = notificationService;
+    }
+
+    public void setUser(int userId, boolean archived) {
+        int size = getSize();
+        this.userId = userId;
+        this.archived = archived;
+        generation++;
+        loaded.clear();
+        received.clear();
+        receivedIds.clear();
+        loading = false;
+        exhausted = false;
+        if (size > 0) {
+            fireIntervalRemoved(this, 0, size - 1);
+        }
+        loadNextPage();
+    }
+
+    // Adds newly saved notifications on top, oldest first so the newest ends up first
+    public void addReceived(List<Notification> notifications) {
+        if (notifications.isEmpty() || archived) return;
+        for (Notification notification : notifications) {
+            received.add(notification);
+            receivedIds.add(notification.getId());
+        }
+        fireIntervalAdded(this, 0, notifications.size() - 1);
+    }
+
+    // Reflects a bulk mark-as-read on the rows already in memory; later pages come from the
+    // database already marked
+    public void markRead(Predicate<Notification> filter) {
+        boolean changed = false;
+        for (List<Notification> rows : Arrays.asList(received, loaded)) {
+            for (Notification notification : rows) {
+                if (!notification.isRead() && filter.test(notification)) {
+                    notification.setRead(true);
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            fireContentsChanged(this, 0, getSize() - 1);
+        }
+    }
 
-        // محاكاة إرسال بريد إلكتروني (في التطبيق الحقيقي، سنستخدم خدمة بريد إلكتروني)
-        private void sendEmailNotification(User user, Notification notification) {
-            System.out.println("Sending email to " + user.getEmail() + ": " + notification.getTitle());
-            // هنا سيكون شيفرة الاتصال بخدمة البريد الإلكتروني
+    @Override
+    public int getSize() {
+        return received.size() + loaded.size();
+    }
+
+    @Override
+    public Notification getElementAt(int index) {
+        if (index >= getSize() - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+        if (index < received.size()) {
+            return received.get(received.size() - 1 - index);
         }
+        return loaded.get(index - received.size());
+    }
+
+    private void loadNextPage() {
+        if (loading || exhausted || userId < 0) return;
+        loading = true;
+        int requestUser = userId;
+        boolean requestArchived = archived;
+        int requestGeneration = generation;
+        Notification last = loaded.isEmpty() ? null : loaded.get(loaded.size() - 1);
+
+        new SwingWorker<List<Notification>, Void>() {
+            @Override
+            protected List<Notification> doInBackground() {
+                return requestArchived
+                        ? notificationService.getArchivedNotificationsPage(requestUser, last, PAGE_SIZE)
+                        : notificationService.getUserNotificationsPage(requestUser, last, PAGE_SIZE);
+            }
+
+            @Override
+            protected void done() {
+                if (requestGeneration != generation) return;
+                loading = false;
+                List<Notification> page;
+                try {
+                    page = get();
+                } catch (Exception e) {
+                    System.err.println("Error loading notifications: " + e.getMessage());
+                    return;
+                }
+                exhausted = page.size() < PAGE_SIZE;
+                int start = getSize();
+                for (Notification notification : page) {
+                    // Received live while this page was loading
+                    if (!receivedIds.contains(notification.getId())) {
+                        loaded.add(notification);
+                    }
+                }
+                if (getSize() > start) {
+                    fireIntervalAdded(NotificationListModel.this, start, getSize() - 1);
+                }
+            }
+        }.execute();
     }
 }
 
 class NotificationPanel extends JPanel implements NotificationListener {
     private final NotificationService notificationService;
     private JList<Notification> notificationList;
-    private DefaultListModel<Notification> notificationModel;
+    private NotificationListModel notificationModel;
     private JTextArea detailsArea;
     private JComboBox<User> userSelector;
     private JComboBox<NotificationPreference> preferenceSelector;
+    private JLabel unreadLabel;
+    private JCheckBox archivedCheckBox;
+    private JButton markAllButton;
+    private JPopupMenu listMenu;
     private User currentUser;
 
     public NotificationPanel(NotificationService notificationService) {
@@ -606,19 +1533,35 @@ class NotificationPanel extends JPanel implements NotificationListener {
         });
         userPanel.add(preferenceSelector);
 
+        // Archived notifications are read from the archive database only when asked for
+        archivedCheckBox = new JCheckBox("Show Archived");
+        archivedCheckBox.addActionListener(e -> refreshNotifications());
+        userPanel.add(archivedCheckBox);
+
         topPanel.add(userPanel, BorderLayout.CENTER);
 
-        // Refresh button
+        // Unread badge and refresh button
+        JPanel actionPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        unreadLabel = new JLabel();
+        actionPanel.add(unreadLabel);
+        markAllButton = new JButton("Mark All Read");
+        markAllButton.addActionListener(e -> markAllRead());
+        actionPanel.add(markAllButton);
         JButton refreshButton = new JButton("Refresh");
         refreshButton.addActionListener(e -> refreshNotifications());
-        topPanel.add(refreshButton, BorderLayout.EAST);
+        actionPanel.add(refreshButton);
+        topPanel.add(actionPanel, BorderLayout.EAST);
 
         add(topPanel, BorderLayout.NORTH);
 
         // Notification list
-        notificationModel = new DefaultListModel<>();
+        notificationModel = new NotificationListModel(notificationService);
         notificationList = new JList<>(notificationModel);
         notificationList.setCellRenderer(new NotificationCellRenderer());
+        // With a prototype the list sizes rows without asking the model for every element,
+        // so only the visible rows are fetched
+        notificationList.setPrototypeCellValue(new Notification(0, "Price Alert: 10-Year Treasury Bond",
+                "", NotificationType.PRICE_ALERT, NotificationPriority.MEDIUM));
         notificationList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting() && notificationList.getSelectedValue() != null) {
                 Notification selected = notificationList.getSelectedValue();
@@ -629,15 +1572,32 @@ class NotificationPanel extends JPanel implements NotificationListener {
                         "\nTime: " + formatDateTime(selected.getTimestamp()) +
                         "\nStatus: " + (selected.isRead() ? "Read" : "Unread"));
 
-                // Mark as read if not already
-                if (!selected.isRead()) {
+                // Mark as read if not already; a multi-row selection is marked with the
+                // bulk action instead of one update per row
+                if (!selected.isRead() && notificationList.getSelectedIndices().length == 1
+                        && !archivedCheckBox.isSelected()) {
                     notificationService.markNotificationAsRead(selected.getId());
                     selected.setRead(true);
                     notificationList.repaint();
+                    updateUnreadCount();
                 }
             }
         });
 
+        // Bulk actions on the selection
+        listMenu = new JPopupMenu();
+        JMenuItem markSelectedItem = new JMenuItem("Mark Selected as Read");
+        markSelectedItem.addActionListener(e -> markSelectedRead());
+        listMenu.add(markSelectedItem);
+        JMenuItem markOlderItem = new JMenuItem("Mark This and Older as Read");
+        markOlderItem.addActionListener(e -> markReadUpToSelected());
+        listMenu.add(markOlderItem);
+        listMenu.addSeparator();
+        JMenuItem markAllItem = new JMenuItem("Mark All as Read");
+        markAllItem.addActionListener(e -> markAllRead());
+        listMenu.add(markAllItem);
+        notificationList.setComponentPopupMenu(listMenu);
+
         JScrollPane listScrollPane = new JScrollPane(notificationList);
         listScrollPane.setPreferredSize(new Dimension(300, 400));
 
@@ -664,21 +1624,116 @@ class NotificationPanel extends JPanel implements NotificationListener {
 
     private void refreshNotifications() {
         if (currentUser != null) {
-            notificationModel.clear();
-            List<Notification> notifications = notificationService.getUserNotifications(currentUser.getId());
-            for (Notification notification : notifications) {
-                notificationModel.addElement(notification);
+            boolean archived = archivedCheckBox.isSelected();
+            notificationModel.setUser(currentUser.getId(), archived);
+            // Archived notifications are history; the mark-as-read actions apply to the inbox
+            markAllButton.setEnabled(!archived);
+            notificationList.setComponentPopupMenu(archived ? null : listMenu);
+            updateUnreadCount();
+        }
+    }
+
+    // Up to now rather than everything: notifications saved after the click stay unread, in
+    // the database and in the list alike
+    private void markAllRead() {
+        if (currentUser == null) return;
+        int userId = currentUser.getId();
+        LocalDateTime upTo = LocalDateTime.now();
+        long upToMillis = NotificationDAO.toEpochMillis(upTo);
+        markReadInBackground(() -> notificationService.markNotificationsAsReadUpTo(userId, upTo),
+                n -> NotificationDAO.toEpochMillis(n.getTimestamp()) <= upToMillis);
+    }
+
+    private void markSelectedRead() {
+        if (currentUser == null) return;
+        int userId = currentUser.getId();
+        Set<Integer> ids = new HashSet<>();
+        for (Notification notification : notificationList.getSelectedValuesList()) {
+            if (!notification.isRead()) {
+                ids.add(notification.getId());
             }
         }
+        if (ids.isEmpty()) return;
+        markReadInBackground(() -> notificationService.markNotificationsAsRead(userId, ids),
+                n -> ids.contains(n.getId()));
+    }
+
+    // Everything at or before the selected notification's time, compared in stored milliseconds
+    private void markReadUpToSelected() {
+        Notification selected = notificationList.getSelectedValue();
+        if (currentUser == null || selected == null) return;
+        int userId = currentUser.getId();
+        LocalDateTime upTo = selected.getTimestamp();
+        long upToMillis = NotificationDAO.toEpochMillis(upTo);
+        markReadInBackground(() -> notificationService.markNotificationsAsReadUpTo(userId, upTo),
+                n -> NotificationDAO.toEpochMillis(n.getTimestamp()) <= upToMillis);
+    }
+
+    // Runs one bulk update off the event thread, then updates the loaded rows and the badge.
+    // The rows are only shown as read once the database says the update went through.
+    private void markReadInBackground(Supplier<Integer> update, Predicate<Notification> filter) {
+        User user = currentUser;
+        new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() {
+                return update.get();
+            }
+
+            @Override
+            protected void done() {
+                int changed;
+                try {
+                    changed = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    changed = -1;
+                }
+                if (changed < 0) {
+                    JOptionPane.showMessageDialog(NotificationPanel.this,
+                            "Could not mark the notifications as read. Please try again.",
+                            "Notification Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                if (currentUser != user) return;
+                notificationModel.markRead(filter);
+                updateUnreadCount();
+            }
+        }.execute();
+    }
+
+    // Read from the service's counters, so it costs the same however large the inbox is
+    private void updateUnreadCount() {
+        if (currentUser == null) return;
+        int userId = currentUser.getId();
+        int high = notificationService.getUnreadCount(userId, NotificationPriority.HIGH);
+        int medium = notificationService.getUnreadCount(userId, NotificationPriority.MEDIUM);
+        int low = notificationService.getUnreadCount(userId, NotificationPriority.LOW);
+        unreadLabel.setText("Unread: " + (high + medium + low));
+        unreadLabel.setToolTipText("High: " + high + ", Medium: " + medium + ", Low: " + low);
     }
 
     @Override
     public void onNotificationReceived(Notification notification) {
-        if (currentUser != null && notification.getUserId() == currentUser.getId()) {
-            SwingUtilities.invokeLater(() -> {
-                notificationModel.add(0, notification);
-            });
+        onNotificationsReceived(Collections.singletonList(notification));
+    }
+
+    // A saved batch can hold notifications for many users; only the current user's are
+    // added, with a single hop to the event thread per batch
+    @Override
+    public void onNotificationsReceived(List<Notification> notifications) {
+        User user = currentUser;
+        if (user == null) return;
+        List<Notification> mine = new ArrayList<>();
+        for (Notification notification : notifications) {
+            if (notification.getUserId() == user.getId()) {
+                mine.add(notification);
+            }
         }
+        if (mine.isEmpty()) return;
+        SwingUtilities.invokeLater(() -> {
+            if (currentUser != user) return;
+            notificationModel.addReceived(mine);
+            updateUnreadCount();
+        });
     }
 
     private String formatDateTime(LocalDateTime dateTime) {
@@ -0,0 +1,319 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Headless entry point for batch servers: runs scenarios through SimulationEngine without
+ * the Swing frame, the database or any java.awt class.
+ *
+ * Each input line is one scenario:
+ *   symbol,annual_return,volatility,amount,years[,paths[,variance_reduction[,target_precision[,time_budget_ms]]]]
+ * Without a path count the bands come from the closed form. A target precision (relative
+ * half-width of the P5/P95 confidence intervals, e.g. 0.005) or a time budget makes the run
+ * adaptive: paths are added until either is met, up to the path count (default 10,000 when
+ * the field is empty or 0). Runs with a time budget are not reproducible. Blank lines, lines
+ * starting with '#' and a header line starting with "symbol" are skipped.
+ *
+ * Usage: java SimulationRunner [--input file] [--output file] [--format csv|binary]
+ *                              [--threads n] [--seed n] [--kernel] [--risk]
+ * --risk adds value at risk, expected shortfall and mean max drawdown to every record. The
+ * first two are losses against the amount over the whole horizon, 0 when even the worst 5%
+ * of paths end with a gain. Rows without a path count stream them from the path count's
+ * worth of paths (default 10,000) without storing any, next to the closed-form bands.
+ * --kernel draws the shocks of plain runs with PathKernel.load(), i.e. the Vector API kernel
+ * when the JVM runs with --add-modules jdk.incubator.vector.
+ */
+class SimulationRunner {
+    // "ISR1" - identifies the binary format and its version
+    static final int BINARY_MAGIC = 0x49535231;
+    // "ISR2" - ISR1 with the risk metrics appended to every record
+    static final int BINARY_MAGIC_RISK = 0x49535232;
+
+    private final int threads;
+    private final long seed;
+    private final boolean binary;
+    private final boolean kernel;
+    private final boolean risk;
+
+    SimulationRunner(int threads, long seed, boolean binary, boolean kernel, boolean risk) {
+        this.threads = threads;
+        this.seed = seed;
+        this.binary = binary;
+        this.kernel = kernel;
+        this.risk = risk;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String input = null;
+        String output = null;
+        String format = "csv";
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = investment.SimulationEngine.DEFAULT_SEED;
+        boolean kernel = false;
+        boolean risk = false;
+
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--input": input = value; i++; break;
+                case "--output": output = value; i++; break;
+                case "--format": format = value; i++; break;
+                case "--threads": threads = Integer.parseInt(value); i++; break;
+                case "--seed": seed = Long.parseLong(value); i++; break;
+                case "--kernel": kernel = true; break;
+                case "--risk": risk = true; break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if (!"csv".equals(format) && !"binary".equals(format)) {
+            System.err.println("Unknown format: " + format);
+            System.exit(2);
+        }
+
+        SimulationRunner runner = new SimulationRunner(Math.max(1, threads), seed, "binary".equals(format), kernel,
+                risk);
+        try (InputStream in = input == null ? System.in : new FileInputStream(input);
+             OutputStream out = output == null ? System.out : new FileOutputStream(output)) {
+            long start = System.nanoTime();
+            long count = runner.run(in, out);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf(Locale.ROOT, "%d scenarios in %.2f s (%.1f scenarios/s)%n",
+                    count, seconds, count / Math.max(seconds, 1e-9));
+        }
+    }
+
+    // Runs every scenario in 'in' and writes one record per scenario to 'out', in input order.
+    // At most a few scenarios per thread are in flight, so memory stays flat for any input size.
+    public long run(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        ForkJoinPool pathPool = new ForkJoinPool(threads);
+        ExecutorService scenarioPool = Executors.newFixedThreadPool(threads);
+        investment.SimulationCache cache = new investment.SimulationCache(investment.SimulationCache.DEFAULT_MAX_BYTES);
+        investment.SimulationEngine engine = kernel
+                ? new investment.SimulationEngine(pathPool, cache, investment.PathKernel.load())
+                : new investment.SimulationEngine(pathPool, cache);
+        RecordWriter writer = binary ? new BinaryRecordWriter(out, risk) : new CsvRecordWriter(out, risk);
+        ArrayDeque<Future<investment.SimulationResult>> pending = new ArrayDeque<>();
+        int window = threads * 4;
+        long count = 0;
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            writer.writeHeader();
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("symbol")) {
+                    continue;
+                }
+                Scenario scenario = Scenario.parse(line, lineNumber);
+                pending.add(scenarioPool.submit(() -> scenario.run(engine, seed, risk)));
+                if (pending.size() >= window) {
+                    writer.write(take(pending));
+                    count++;
+                }
+            }
+            while (!pending.isEmpty()) {
+                writer.write(take(pending));
+                count++;
+            }
+            writer.flush();
+        } finally {
+            scenarioPool.shutdownNow();
+            pathPool.shutdownNow();
+        }
+        return count;
+    }
+
+    private static investment.SimulationResult take(ArrayDeque<Future<investment.SimulationResult>> pending)
+            throws IOException, InterruptedException {
+        try {
+            return pending.poll().get();
+        } catch (ExecutionException e) {
+            throw new IOException("Scenario failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    static class Scenario {
+        private final investment.Investment instrument;
+        private final double amount;
+        private final int years;
+        private final int pathCount;
+        private final investment.VarianceReduction varianceReduction;
+        private final double targetPrecision;
+        private final long timeBudgetMillis;
+
+        Scenario(investment.Investment instrument, double amount, int years, int pathCount,
+                 investment.VarianceReduction varianceReduction, double targetPrecision, long timeBudgetMillis) {
+            this.instrument = instrument;
+            this.amount = amount;
+            this.years = years;
+            this.pathCount = pathCount;
+            this.varianceReduction = varianceReduction;
+            this.targetPrecision = targetPrecision;
+            this.timeBudgetMillis = timeBudgetMillis;
+        }
+
+        static Scenario parse(String line, int lineNumber) {
+            String[] fields = line.split(",");
+            if (fields.length < 5) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": expected at least 5 fields");
+            }
+            try {
+                String symbol = fields[0].trim();
+                investment.Investment instrument = new investment.Investment(0, symbol, symbol, "",
+                        0, Double.parseDouble(fields[2].trim()), Double.parseDouble(fields[1].trim()));
+                int pathCount = fields.length > 5 && !fields[5].trim().isEmpty() ? Integer.parseInt(fields[5].trim()) : 0;
+                investment.VarianceReduction varianceReduction = fields.length > 6 && !fields[6].trim().isEmpty()
+                        ? investment.VarianceReduction.valueOf(fields[6].trim().toUpperCase(Locale.ROOT))
+                        : investment.VarianceReduction.NONE;
+                double targetPrecision = fields.length > 7 && !fields[7].trim().isEmpty()
+                        ? Double.parseDouble(fields[7].trim()) : 0;
+                long timeBudgetMillis = fields.length > 8 && !fields[8].trim().isEmpty()
+                        ? Long.parseLong(fields[8].trim()) : 0;
+                if (targetPrecision < 0 || timeBudgetMillis < 0) {
+                    throw new IllegalArgumentException("target precision and time budget cannot be negative");
+                }
+                return new Scenario(instrument, Double.parseDouble(fields[3].trim()),
+                        Integer.parseInt(fields[4].trim()), pathCount, varianceReduction, targetPrecision,
+                        timeBudgetMillis);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+
+        investment.SimulationResult run(investment.SimulationEngine engine, long seed, boolean risk) {
+            investment.SimulationOptions options = new investment.SimulationOptions();
+            options.setSeed(seed);
+            options.setRiskMetricsRequested(risk);
+            options.setVarianceReduction(varianceReduction);
+            if (pathCount > 0) {
+                options.setPathCount(pathCount);
+                options.setMonteCarloRequested(true);
+            }
+            options.setTargetPrecision(targetPrecision);
+            options.setTimeBudgetMillis(timeBudgetMillis);
+            return engine.simulateBands(amount, years, instrument, options);
+        }
+    }
+
+    interface RecordWriter {
+        void writeHeader() throws IOException;
+        void write(investment.SimulationResult result) throws IOException;
+        void flush() throws IOException;
+    }
+
+    // symbol,amount,years,paths,p5,...,p95,mean,standard_error
+    // [,value_at_risk,expected_shortfall,mean_max_drawdown]
+    static class CsvRecordWriter implements RecordWriter {
+        private final BufferedWriter out;
+        private final boolean risk;
+        private final StringBuilder line = new StringBuilder(160);
+
+        CsvRecordWriter(OutputStream out, boolean risk) {
+            this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+            this.risk = risk;
+        }
+
+        public void writeHeader() throws IOException {
+            line.setLength(0);
+            line.append("symbol,amount,years,paths");
+            for (double level : investment.SimulationEngine.PERCENTILE_LEVELS) {
+                line.append(",p").append((int) level);
+            }
+            line.append(",mean,standard_error");
+            if (risk) {
+                line.append(",value_at_risk,expected_shortfall,mean_max_drawdown");
+            }
+            out.write(line.append('\n').toString());
+        }
+
+        public void write(investment.SimulationResult result) throws IOException {
+            int last = result.size() - 1;
+            line.setLength(0);
+            line.append(result.getInvestment().getSymbol()).append(',')
+                    .append(result.getInitialInvestment()).append(',')
+                    .append(result.getPeriodInYears()).append(',')
+                    .append(result.getPathCount());
+            for (double level : investment.SimulationEngine.PERCENTILE_LEVELS) {
+                line.append(',').append(result.getPercentileBand(level)[last]);
+            }
+            line.append(',').append(result.getMeanFinalValue())
+                    .append(',').append(result.getStandardError());
+            if (risk) {
+                investment.RiskMetrics metrics = result.getRiskMetrics();
+                line.append(',').append(metrics.getValueAtRisk())
+                        .append(',').append(metrics.getExpectedShortfall())
+                        .append(',').append(metrics.getMeanMaxDrawdown());
+            }
+            out.write(line.append('\n').toString());
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    // Big-endian: magic, level count and levels, then per record the symbol (modified UTF-8),
+    // amount, years, paths, one double per level, mean and standard error; with the ISR2 magic
+    // also value at risk, expected shortfall and mean max drawdown
+    static class BinaryRecordWriter implements RecordWriter {
+        private final DataOutputStream out;
+        private final boolean risk;
+
+        BinaryRecordWriter(OutputStream out, boolean risk) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+            this.risk = risk;
+        }
+
+        public void writeHeader() throws IOException {
+            out.writeInt(risk ? BINARY_MAGIC_RISK : BINARY_MAGIC);
+            out.writeInt(investment.SimulationEngine.PERCENTILE_LEVELS.length);
+            for (double level : investment.SimulationEngine.PERCENTILE_LEVELS) {
+                out.writeDouble(level);
+            }
+        }
+
+        public void write(investment.SimulationResult result) throws IOException {
+            int last = result.size() - 1;
+            out.writeUTF(result.getInvestment().getSymbol());
+            out.writeDouble(result.getInitialInvestment());
+            out.writeInt(result.getPeriodInYears());
+            out.writeInt(result.getPathCount());
+            for (double level : investment.SimulationEngine.PERCENTILE_LEVELS) {
+                out.writeDouble(result.getPercentileBand(level)[last]);
+            }
+            out.writeDouble(result.getMeanFinalValue());
+            out.writeDouble(result.getStandardError());
+            if (risk) {
+                investment.RiskMetrics metrics = result.getRiskMetrics();
+                out.writeDouble(metrics.getValueAtRisk());
+                out.writeDouble(metrics.getExpectedShortfall());
+                out.writeDouble(metrics.getMeanMaxDrawdown());
+            }
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sanity check for SimulationRunner, run by hand after changing the engine or its cache:
+ *   java SimulationRunnerCheck
+ * Exits with status 1 and a message on the first failed check.
+ */
+class SimulationRunnerCheck {
+    public static void main(String[] args) throws Exception {
+        // Same parameters and seed, different symbols and amounts: the rows share one cache
+        // key. One thread, so the second row is served from the first row's cached result
+        String[] rows = run("AAA,0.1,0.2,1000,10,5000\nBBB,0.1,0.2,2000,10,5000\n");
+        check(rows.length == 3, "expected a header and 2 rows, got " + rows.length);
+
+        String[] first = rows[1].split(",");
+        String[] second = rows[2].split(",");
+        check("AAA".equals(first[0]), "first row should be AAA: " + rows[1]);
+        check("BBB".equals(second[0]), "second row should be BBB: " + rows[2]);
+        check(Double.parseDouble(second[1]) == 2000.0, "second row should keep its amount: " + rows[2]);
+        // Shared paths, so every percentile of the second row is twice the first's
+        for (int i = 4; i < first.length; i++) {
+            double expected = 2 * Double.parseDouble(first[i]);
+            check(Math.abs(Double.parseDouble(second[i]) - expected) <= 1e-9 * Math.abs(expected),
+                    "column " + i + " of BBB should be twice AAA's: " + rows[1] + " / " + rows[2]);
+        }
+
+        // Fixed-count and adaptive rows must not load the Swing frame (the nest host of the
+        // engine) or any java.awt class. Checked in a fresh JVM, since this one has run rows already.
+        for (String row : new String[] {"AAA,0.1,0.2,1000,10,5000", "AAA,0.1,0.2,1000,10,,,0.02"}) {
+            String loaded = loadedDesktopClass(row);
+            check(loaded == null, "row " + row + " loaded " + loaded);
+        }
+        System.out.println("SimulationRunner checks passed");
+    }
+
+    // First class of the frame or of java.awt / javax.swing that SimulationRunner loads for
+    // one input row, or null
+    private static String loadedDesktopClass(String row) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-verbose:class", "-cp", System.getProperty("java.class.path"),
+                "SimulationRunner", "--threads", "1")
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try (OutputStream in = process.getOutputStream()) {
+            in.write((row + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        String loaded = null;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                // [0.141s][info][class,load] investment source: file:/...
+                int start = line.indexOf("] ");
+                int end = line.indexOf(" source:");
+                if (loaded != null || start < 0 || end < start) continue;
+                String name = line.substring(start + 2, end);
+                if (name.equals("investment") || name.startsWith("java.awt.") || name.startsWith("javax.swing.")) {
+                    loaded = name;
+                }
+            }
+        }
+        check(process.waitFor() == 0, "SimulationRunner failed on row " + row);
+        return loaded;
+    }
+
+    private static String[] run(String input) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SimulationRunner(1, investment.SimulationEngine.DEFAULT_SEED, false, false, false)
+                .run(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+        return out.toString("UTF-8").trim().split("\n");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+}
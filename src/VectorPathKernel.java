@@ -0,0 +1,139 @@
+import java.util.concurrent.ForkJoinPool;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * PathKernel on the incubating Vector API: every lane is one path, so a block of paths
+ * gets its shocks and its quarterly steps several paths per instruction. Shocks come from
+ * per-lane SplitMix64 generators turned into normals with Box-Muller; the drawdown tracking
+ * uses lane masks instead of branches. Leftover paths that don't fill a vector go through
+ * the scalar code, which computes the same values.
+ *
+ * Needs --add-modules jdk.incubator.vector to compile and run; without it
+ * investment.PathKernel.load() falls back to the scalar kernel.
+ *
+ * main() benchmarks the default engine loop against the scalar and the vector kernel:
+ *   java --add-modules jdk.incubator.vector VectorPathKernel [paths] [years]
+ */
+class VectorPathKernel extends investment.ScalarPathKernel {
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = VectorSpecies.of(long.class, DOUBLES.vectorShape());
+    private static final double TWO_PI = 2 * Math.PI;
+
+    @Override
+    public void fillNormals(long[] states, int from, int to, double[] normals, int stride, int steps) {
+        int bound = from + DOUBLES.loopBound(to - from);
+        for (int j = from; j < bound; j += DOUBLES.length()) {
+            LongVector state = LongVector.fromArray(LONGS, states, j);
+            for (int k = 0; k < steps; k += 2) {
+                state = state.add(RandomStreams.GOLDEN_GAMMA);
+                DoubleVector u1 = DoubleVector.broadcast(DOUBLES, 1).sub(uniform(state));
+                state = state.add(RandomStreams.GOLDEN_GAMMA);
+                DoubleVector u2 = uniform(state);
+                DoubleVector radius = u1.lanewise(VectorOperators.LOG).mul(-2).lanewise(VectorOperators.SQRT);
+                DoubleVector angle = u2.mul(TWO_PI);
+                radius.mul(angle.lanewise(VectorOperators.COS)).intoArray(normals, k * stride + j);
+                if (k + 1 < steps) {
+                    radius.mul(angle.lanewise(VectorOperators.SIN)).intoArray(normals, (k + 1) * stride + j);
+                }
+            }
+            state.intoArray(states, j);
+        }
+        super.fillNormals(states, bound, to, normals, stride, steps);
+    }
+
+    // Uniform in [0, 1) from the SplitMix64 output of each lane's state
+    private static DoubleVector uniform(LongVector state) {
+        LongVector z = state;
+        z = z.lanewise(VectorOperators.XOR, z.lanewise(VectorOperators.LSHR, 30)).mul(0xBF58476D1CE4E5B9L);
+        z = z.lanewise(VectorOperators.XOR, z.lanewise(VectorOperators.LSHR, 27)).mul(0x94D049BB133111EBL);
+        z = z.lanewise(VectorOperators.XOR, z.lanewise(VectorOperators.LSHR, 31));
+        return ((DoubleVector) z.lanewise(VectorOperators.LSHR, 11).convert(VectorOperators.L2D, 0)).mul(0x1.0p-53);
+    }
+
+    @Override
+    public void step(double[] current, double[] peak, double[] maxDrawdown, double[] troughStep,
+                     double[] recoveryQuarters, double[] normals, int offset, int from, int to,
+                     double growth, double shock, int step) {
+        int bound = from + DOUBLES.loopBound(to - from);
+        DoubleVector one = DoubleVector.broadcast(DOUBLES, 1);
+        DoubleVector notRecovered = DoubleVector.broadcast(DOUBLES, -1);
+        DoubleVector stepVector = DoubleVector.broadcast(DOUBLES, step);
+
+        for (int j = from; j < bound; j += DOUBLES.length()) {
+            DoubleVector shocks = DoubleVector.fromArray(DOUBLES, normals, offset + j);
+            DoubleVector value = DoubleVector.fromArray(DOUBLES, current, j).mul(shocks.mul(shock).add(growth));
+            DoubleVector runningPeak = DoubleVector.fromArray(DOUBLES, peak, j);
+            DoubleVector deepest = DoubleVector.fromArray(DOUBLES, maxDrawdown, j);
+            DoubleVector trough = DoubleVector.fromArray(DOUBLES, troughStep, j);
+            DoubleVector recovery = DoubleVector.fromArray(DOUBLES, recoveryQuarters, j);
+
+            VectorMask<Double> above = value.compare(VectorOperators.GE, runningPeak);
+            VectorMask<Double> recovers = above.and(recovery.compare(VectorOperators.LT, 0))
+                    .and(deepest.compare(VectorOperators.GT, 0));
+            recovery = recovery.blend(stepVector.sub(trough), recovers);
+
+            DoubleVector drawdown = one.sub(value.div(runningPeak));
+            VectorMask<Double> deeper = above.not().and(drawdown.compare(VectorOperators.GT, deepest));
+            deepest = deepest.blend(drawdown, deeper);
+            trough = trough.blend(stepVector, deeper);
+            recovery = recovery.blend(notRecovered, deeper);
+
+            value.intoArray(current, j);
+            runningPeak.max(value).intoArray(peak, j);
+            deepest.intoArray(maxDrawdown, j);
+            trough.intoArray(troughStep, j);
+            recovery.intoArray(recoveryQuarters, j);
+        }
+        super.step(current, peak, maxDrawdown, troughStep, recoveryQuarters, normals, offset, bound, to,
+                growth, shock, step);
+    }
+
+    @Override
+    public String getName() {
+        return "vector (" + DOUBLES.length() + " lanes)";
+    }
+
+    public static void main(String[] args) {
+        int paths = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int years = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        investment.Investment spy = new investment.Investment(2, "S&P 500 ETF", "SPY", "ETF", 450.75, 0.16, 0.10);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        investment.PathKernel[] kernels = {null, new investment.ScalarPathKernel(), new VectorPathKernel()};
+        System.out.printf("%,d paths x %d quarters, parallelism %d%n", paths, years * 4, pool.getParallelism());
+
+        for (int i = 0; i < kernels.length; i++) {
+            // A cache of size 0 keeps every run a real simulation
+            investment.SimulationCache cache = new investment.SimulationCache(0);
+            investment.SimulationEngine engine = kernels[i] == null
+                    ? new investment.SimulationEngine(pool, cache)
+                    : new investment.SimulationEngine(pool, cache, kernels[i]);
+
+            long bestFull = Long.MAX_VALUE, bestRisk = Long.MAX_VALUE;
+            double median = 0;
+            for (int round = 0; round < 6; round++) {
+                long start = System.nanoTime();
+                investment.SimulationResult result = engine.simulateMonteCarlo(10_000, years, spy, paths, round);
+                long full = System.nanoTime() - start;
+                start = System.nanoTime();
+                engine.simulateRiskMetrics(10_000, years, spy, paths, round, investment.VarianceReduction.NONE);
+                long risk = System.nanoTime() - start;
+                // The first rounds warm up the JIT
+                if (round >= 2) {
+                    bestFull = Math.min(bestFull, full);
+                    bestRisk = Math.min(bestRisk, risk);
+                }
+                median = result.getFinalValueModerate();
+            }
+            String name = kernels[i] == null ? "default loop (nextGaussian)"
+                    : kernels[i].getName() + " kernel (Box-Muller)";
+            System.out.printf("%-40s full run %7.1f ms   paths only %7.1f ms (%6.1f M path-steps/s)   P50 %,.0f%n",
+                    name, bestFull / 1e6, bestRisk / 1e6, (double) paths * years * 4 / bestRisk * 1e3, median);
+        }
+    }
+}